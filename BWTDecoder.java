@@ -0,0 +1,335 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+/**
+ * Decodes the frame format written by BWTEncoder. 
+ * Blocks are independent, so they are decoded on a pool of threads and written out in order,
+ * with at most one block per thread plus one held at a time.
+ * A decoder never changes once built, so one instance can be shared by any number of threads.
+ */
+public class BWTDecoder {
+
+    //~Constants-----------------------------------
+    private static final int LOOKUP_BITS = 11;
+
+    //~Fields--------------------------------------
+    /**
+     * Whether each block is checked against its checksum before it is decoded.
+     */
+    private final boolean verifyChecksums;
+
+    private final int threads;
+
+    /**
+     * Build a decoder.
+     *
+     * @param verifyChecksums false to skip checking blocks against their checksums.
+     * @param threads the number of blocks to decode at once.
+     */
+    public BWTDecoder(boolean verifyChecksums, int threads) {
+
+        if (threads < 1) {
+
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        this.verifyChecksums = verifyChecksums;
+        this.threads = threads;
+    }
+
+    /**
+     * Decode a complete compressed frame held in memory.
+     *
+     * @param compressed the header followed by the encoded blocks.
+     * @return the decoded bytes.
+     */
+    public byte[] decode(byte[] compressed) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+        decode(new ByteArrayInputStream(compressed), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode one compressed frame from a stream, leaving the stream just past its end.
+     *
+     * @param in the stream to read the frame from.
+     * @param out where to write the decoded bytes, it is not flushed.
+     */
+    public void decode(InputStream in, OutputStream out) throws IOException {
+
+        DataInputStream is = new DataInputStream(in);
+        if (is.readInt() != BWTEncoder.MAGIC) {
+
+            throw new IOException("Not a block sorted frame");
+        }
+        int blockSize = is.readInt();
+        if (blockSize < 1 || blockSize > BWTEncoder.MAX_LEVEL * BWTEncoder.LEVEL_BLOCK_SIZE) {
+
+            throw new IOException("Invalid block size: " + blockSize);
+        }
+        long byteCount = is.readLong();
+        int blockCount = is.readInt();
+        long bytesRead = 0;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        try {
+
+            for (int block = 0; block < blockCount; block++) {
+
+                final int blockByteCount = is.readInt();
+                int blockLength = is.readInt();
+                final int paddingBits = is.readInt();
+                final int blockChecksum = is.readInt();
+                // The header is not covered by the checksum, so bound it before allocating
+                if (blockByteCount < 1 || blockByteCount > blockSize || blockLength < 0 
+                        || blockLength > BWTEncoder.maxBlockLength(blockSize)) {
+
+                    throw new IOException("Block " + block + " has an invalid length");
+                }
+                final byte[] blockBytes = new byte[blockLength];
+                is.readFully(blockBytes);
+
+                final int blockIndex = block;
+                pending.add(pool.submit(new Callable<byte[]>() {
+                    public byte[] call() throws IOException {
+
+                        return decodeBlock(blockBytes, blockByteCount, paddingBits, 
+                                blockChecksum, blockIndex);
+                    }
+                }));
+                bytesRead += blockByteCount;
+
+                if (pending.size() > threads) {
+
+                    out.write(BWTEncoder.awaitBlock(pending.poll()));
+                }
+            }
+
+            while (!pending.isEmpty()) {
+
+                out.write(BWTEncoder.awaitBlock(pending.poll()));
+            }
+        } finally {
+
+            pool.shutdownNow();
+        }
+
+        if (bytesRead != byteCount) {
+
+            throw new IOException("Compressed data held " + bytesRead 
+                    + " bytes, header says " + byteCount);
+        }
+    }
+
+    /**
+     * Check one block against its checksum, then undo its coding, move-to-front and 
+     * Burrows-Wheeler transform.
+     *
+     * @param n the number of bytes the block decodes to.
+     */
+    private byte[] decodeBlock(byte[] blockBytes, int n, int paddingBits, int blockChecksum, 
+            int block) throws IOException {
+
+        if (verifyChecksums) {
+
+            CRC32C checksum = new CRC32C();
+            checksum.update(blockBytes, 0, blockBytes.length);
+            if ((int) checksum.getValue() != blockChecksum) {
+
+                throw new IOException("Checksum mismatch in block " + block);
+            }
+        }
+
+        BitReader bits = new BitReader(blockBytes, 0, blockBytes.length);
+        int originalRow = bits.readBits(32);
+        if (originalRow < 1 || originalRow > n) {
+
+            throw new IOException("Invalid original row in block " + block);
+        }
+        int symbolCount = bits.readBits(32);
+        int tableCount = bits.readBits(3);
+        if (symbolCount < 1 || symbolCount > n || tableCount < 1 
+                || tableCount > BWTEncoder.MAX_TABLES) {
+
+            throw new IOException("Invalid symbol or table count in block " + block);
+        }
+
+        // Selectors are move-to-front positions written in unary
+        int groupCount = (symbolCount + BWTEncoder.GROUP_SIZE - 1) / BWTEncoder.GROUP_SIZE;
+        int[] selectors = new int[groupCount];
+        int[] tableOrder = new int[tableCount];
+        for (int table = 0; table < tableCount; table++) {
+
+            tableOrder[table] = table;
+        }
+        for (int group = 0; group < groupCount; group++) {
+
+            int position = 0;
+            while (bits.readBits(1) == 1) {
+
+                if (++position == tableCount) {
+
+                    throw new IOException("Invalid selector in block " + block);
+                }
+            }
+            int selector = tableOrder[position];
+            System.arraycopy(tableOrder, 0, tableOrder, 1, position);
+            tableOrder[0] = selector;
+            selectors[group] = selector;
+        }
+        HuffmanDecodeTable[] tables = new HuffmanDecodeTable[tableCount];
+        for (int table = 0; table < tableCount; table++) {
+
+            tables[table] = CanonicalCode.read(bits, BWTEncoder.ALPHABET_SIZE)
+                    .decodeTable(LOOKUP_BITS);
+        }
+
+        // Undo the zero runs and move-to-front
+        byte[] lastColumn = new byte[n];
+        byte[] order = new byte[256];
+        for (int i = 0; i < 256; i++) {
+
+            order[i] = (byte) i;
+        }
+        int position = 0;
+        int zeroRun = 0;
+        int runWeight = 1;
+        int symbol;
+        for (int i = 0; i < symbolCount; i++) {
+
+            symbol = bits.decodeSymbol(tables[selectors[i / BWTEncoder.GROUP_SIZE]], position);
+            if (symbol == BWTEncoder.RUN_A || symbol == BWTEncoder.RUN_B) {
+
+                zeroRun += (symbol == BWTEncoder.RUN_A) ? runWeight : 2 * runWeight;
+                runWeight <<= 1;
+                if (zeroRun > n - position) {
+
+                    throw new IOException("Zero run too long in block " + block);
+                }
+                continue;
+            }
+            if (zeroRun > 0) {
+
+                position = fill(lastColumn, position, zeroRun, order[0]);
+                zeroRun = 0;
+                runWeight = 1;
+            }
+            if (position == n) {
+
+                throw new IOException("Too many bytes in block " + block);
+            }
+
+            int value = symbol - 1;
+            byte b = order[value];
+            System.arraycopy(order, 0, order, 1, value);
+            order[0] = b;
+            lastColumn[position++] = b;
+        }
+        position = fill(lastColumn, position, zeroRun, order[0]);
+        if (position != n) {
+
+            throw new IOException("Block " + block + " decoded to " + position 
+                    + " bytes, header says " + n);
+        }
+        if (bits.remainingBits() != paddingBits) {
+
+            throw new IOException("Block " + block + " ended with " + bits.remainingBits() 
+                    + " unread bits, header says " + paddingBits);
+        }
+
+        return inverseTransform(lastColumn, originalRow);
+    }
+
+    /**
+     * Put count copies of b into bytes from position on.
+     *
+     * @return the position after them.
+     */
+    private static int fill(byte[] bytes, int position, int count, byte b) {
+
+        for (int i = 0; i < count; i++) {
+
+            bytes[position + i] = b;
+        }
+
+        return position + count;
+    }
+
+    /**
+     * Rebuild a block from the last column of its sorted rotations.
+     * The sentinel left out of the last column sits in originalRow and sorts before every byte.
+     * Starting from the row beginning with the sentinel, each step to the row that ends one 
+     * byte earlier gives the block back to front.
+     */
+    private static byte[] inverseTransform(byte[] lastColumn, int originalRow) {
+
+        int n = lastColumn.length;
+
+        // Rows starting with each byte come after the sentinel's row and all smaller bytes
+        int[] starts = new int[256];
+        for (int i = 0; i < n; i++) {
+
+            starts[lastColumn[i] & 0xFF]++;
+        }
+        int sum = 1;
+        for (int i = 0; i < 256; i++) {
+
+            sum += starts[i];
+            starts[i] = sum - starts[i];
+        }
+
+        // The row each row steps to, the sentinel row steps to row 0
+        int[] next = new int[n + 1];
+        int row = 0;
+        for (int i = 0; i <= n; i++) {
+
+            if (i == originalRow) {
+                continue;
+            }
+            int b = lastColumn[(i < originalRow) ? i : i - 1] & 0xFF;
+            next[i] = starts[b]++;
+        }
+
+        byte[] block = new byte[n];
+        for (int i = n - 1; i >= 0; i--) {
+
+            block[i] = lastColumn[(row < originalRow) ? row : row - 1];
+            row = next[row];
+        }
+
+        return block;
+    }
+}
@@ -0,0 +1,553 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+/**
+ * Compresses bytes by block sorting, read back by BWTDecoder. Each block goes through the 
+ * Burrows-Wheeler transform, built from a suffix array, then move-to-front, which turns the 
+ * transform's runs of equal bytes into runs of zeros. Zero runs are written in bijective 
+ * base 2 with the RUN_A and RUN_B symbols, like bzip2, and the result is Huffman coded 
+ * with codes built by HuffmanCompression. Like bzip2 each block has up to MAX_TABLES codes 
+ * and every GROUP_SIZE symbols pick the one that codes them shortest.
+ * <p>
+ * Blocks are independent, so they are transformed and coded on a pool of threads and 
+ * written in order. At most one block per thread plus one is held at a time, which bounds 
+ * memory at roughly 20 bytes per block byte per thread.
+ * <p>
+ * A frame starts with a magic number and the block size as ints, the total number of bytes 
+ * as a long and the number of blocks as an int. Each block has the same header as a 
+ * HuffmanEncoder block, with its number of bytes in place of the symbol count. Its bits 
+ * are the row of the original block in the sorted rotations and the number of symbols as 
+ * 32 bits each, the number of tables as 3 bits, the selectors, the code lengths of each 
+ * table and then the coded symbols. Selectors are written move-to-front as unary numbers.
+ * <p>
+ * An encoder never changes once built, so one instance can be shared by any number of threads.
+ */
+public class BWTEncoder {
+
+    //~Constants-----------------------------------
+    /**
+     * The first int of every block sorted frame, "BWT1".
+     */
+    public static final int MAGIC = 0x42575431;
+
+    public static final int DEFAULT_LEVEL = 9;
+    public static final int MIN_LEVEL = 1;
+    public static final int MAX_LEVEL = 9;
+
+    /**
+     * Each level adds this many bytes to the block size.
+     */
+    static final int LEVEL_BLOCK_SIZE = 100000;
+
+    static final int HEADER_SIZE = 20;
+
+    /**
+     * Symbols for the digits of zero run lengths, other move-to-front values v are v + 1.
+     */
+    static final int RUN_A = 0;
+    static final int RUN_B = 1;
+    static final int ALPHABET_SIZE = 257;
+
+    /**
+     * The number of symbols coded with the same table, each group picks one of the block's 
+     * tables. A group's choice is called its selector.
+     */
+    static final int GROUP_SIZE = 50;
+    static final int MAX_TABLES = 6;
+
+    /**
+     * The most bits a block holds besides its coded symbols: the original row, symbol count 
+     * and table count, then every table with a zero run count after each length.
+     */
+    private static final int MAX_BLOCK_OVERHEAD_BITS = 32 + 32 + 3 
+            + (MAX_TABLES * ALPHABET_SIZE * (CanonicalCode.LENGTH_BITS 
+            + CanonicalCode.ZERO_RUN_BITS));
+
+    /**
+     * The number of rounds of assigning groups to tables and rebuilding the tables.
+     */
+    private static final int TABLE_ROUNDS = 4;
+
+    /**
+     * The cost given to a symbol a table has no code for, so groups holding it avoid the table.
+     */
+    private static final int MISSING_CODE_COST = 32;
+
+    //~Fields--------------------------------------
+    private final int blockSize;
+    private final int threads;
+
+    /**
+     * Get the most bytes a block of up to blockSize input bytes can code to, so decoders can 
+     * reject longer blocks before allocating for them. A block never has more symbols than 
+     * input bytes, each costs at most the longest code, and each group of them at most 
+     * a selector of MAX_TABLES bits.
+     *
+     * @param blockSize the most input bytes in a block.
+     */
+    static long maxBlockLength(int blockSize) {
+
+        long groupCount = (blockSize + GROUP_SIZE - 1) / GROUP_SIZE;
+        long bits = MAX_BLOCK_OVERHEAD_BITS + (groupCount * MAX_TABLES) 
+                + ((long) blockSize * DirectFineBytes.MAX_CODE_LENGTH);
+        return (bits + 7) / 8;
+    }
+
+    /**
+     * Build an encoder with the DEFAULT_LEVEL using every core.
+     */
+    public BWTEncoder() {
+
+        this(DEFAULT_LEVEL, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Build an encoder.
+     *
+     * @param level the block size in units of LEVEL_BLOCK_SIZE bytes, MIN_LEVEL to MAX_LEVEL.
+     *          Larger blocks compress better and take more memory.
+     * @param threads the number of blocks to encode at once.
+     */
+    public BWTEncoder(int level, int threads) {
+
+        if (level < MIN_LEVEL || level > MAX_LEVEL) {
+
+            throw new IllegalArgumentException("level must be between " + MIN_LEVEL + " and " 
+                    + MAX_LEVEL + ": " + level);
+        }
+        if (threads < 1) {
+
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        this.blockSize = level * LEVEL_BLOCK_SIZE;
+        this.threads = threads;
+    }
+
+    /**
+     * Encode bytes into a complete compressed frame held in memory.
+     *
+     * @param data the bytes to encode.
+     * @return the header followed by the encoded blocks.
+     */
+    public byte[] encode(byte[] data) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream((data.length / 3) + HEADER_SIZE 
+                + HuffmanCompression.BLOCK_HEADER_SIZE);
+        out.write(new byte[HEADER_SIZE]);
+
+        EncodeTotals totals = new EncodeTotals();
+        encodeBlocks(new ByteArrayInputStream(data), Channels.newChannel(out), totals);
+
+        byte[] compressed = out.toByteArray();
+        writeHeader(ByteBuffer.wrap(compressed), totals);
+        return compressed;
+    }
+
+    /**
+     * Encode everything in an InputStream into a frame written at the channel's position.
+     * The header is filled in after the blocks have been written.
+     *
+     * @param in the bytes to encode.
+     * @param channel the channel to write to.
+     * @return the number of bytes written, including headers.
+     */
+    public long encode(InputStream in, FileChannel channel) throws IOException {
+
+        long headerPosition = channel.position();
+        channel.write(ByteBuffer.allocate(HEADER_SIZE));
+
+        EncodeTotals totals = new EncodeTotals();
+        encodeBlocks(in, channel, totals);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        writeHeader(header, totals);
+        header.flip();
+        channel.write(header, headerPosition);
+        return channel.position() - headerPosition;
+    }
+
+    /**
+     * Put the frame header for a finished encode into header.
+     */
+    private void writeHeader(ByteBuffer header, EncodeTotals totals) {
+
+        header.putInt(MAGIC);
+        header.putInt(blockSize);
+        header.putLong(totals.byteCount);
+        header.putInt(totals.blockCount);
+    }
+
+    /**
+     * Read blocks from in, encode them on a thread pool and write them to out in order.
+     */
+    private void encodeBlocks(InputStream in, WritableByteChannel out, EncodeTotals totals) 
+            throws IOException {
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        try {
+
+            byte[] block;
+            while ((block = readBlock(in)) != null) {
+
+                final byte[] blockBytes = block;
+                pending.add(pool.submit(new Callable<byte[]>() {
+                    public byte[] call() throws IOException {
+
+                        return encodeBlock(blockBytes);
+                    }
+                }));
+                totals.byteCount += block.length;
+                totals.blockCount++;
+
+                if (pending.size() > threads) {
+
+                    writeFully(out, awaitBlock(pending.poll()));
+                }
+            }
+
+            while (!pending.isEmpty()) {
+
+                writeFully(out, awaitBlock(pending.poll()));
+            }
+        } finally {
+
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Read up to blockSize bytes, or null if the stream has ended.
+     */
+    private byte[] readBlock(InputStream in) throws IOException {
+
+        byte[] block = new byte[blockSize];
+        int length = 0;
+        int bytesRead;
+        while (length < blockSize 
+                && (bytesRead = in.read(block, length, blockSize - length)) != -1) {
+
+            length += bytesRead;
+        }
+
+        if (length == 0) {
+
+            return null;
+        }
+        return (length == blockSize) ? block : Arrays.copyOf(block, length);
+    }
+
+    /**
+     * Wait for a block from the pool, passing on whatever went wrong encoding it.
+     */
+    static byte[] awaitBlock(Future<byte[]> future) throws IOException {
+
+        try {
+
+            return future.get();
+        } catch (InterruptedException exception) {
+
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a block");
+        } catch (ExecutionException exception) {
+
+            Throwable cause = exception.getCause();
+            if (cause instanceof IOException) {
+
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Write all of bytes to out.
+     */
+    private static void writeFully(WritableByteChannel out, byte[] bytes) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Transform and code one block.
+     *
+     * @return the block header followed by the block's bits.
+     */
+    private byte[] encodeBlock(byte[] block) {
+
+        int n = block.length;
+
+        // The last column of the sorted rotations, leaving out the sentinel
+        int[] suffixArray = SuffixArray.build(block, 0, n);
+        byte[] lastColumn = new byte[n];
+        int originalRow = 0;
+        int j = 0;
+        for (int i = 0; i <= n; i++) {
+
+            if (suffixArray[i] == 0) {
+
+                originalRow = i;
+            } else {
+
+                lastColumn[j++] = block[suffixArray[i] - 1];
+            }
+        }
+
+        // Move-to-front, with zero runs held back until they end. 
+        // The symbols reuse the suffix array, there are never more of them than bytes.
+        int[] symbols = suffixArray;
+        long[] counts = new long[ALPHABET_SIZE];
+        int symbolCount = 0;
+        byte[] order = new byte[256];
+        for (int i = 0; i < 256; i++) {
+
+            order[i] = (byte) i;
+        }
+        int zeroRun = 0;
+        for (int i = 0; i < n; i++) {
+
+            byte b = lastColumn[i];
+            if (order[0] == b) {
+
+                zeroRun++;
+                continue;
+            }
+            if (zeroRun > 0) {
+
+                symbolCount = addZeroRun(zeroRun, symbols, symbolCount, counts);
+                zeroRun = 0;
+            }
+
+            int value = 1;
+            byte moved = order[0];
+            order[0] = b;
+            while (order[value] != b) {
+
+                byte next = order[value];
+                order[value] = moved;
+                moved = next;
+                value++;
+            }
+            order[value] = moved;
+
+            symbols[symbolCount++] = value + 1;
+            counts[value + 1]++;
+        }
+        if (zeroRun > 0) {
+
+            symbolCount = addZeroRun(zeroRun, symbols, symbolCount, counts);
+        }
+
+        DirectFineBytes fineBytes = new DirectFineBytes(n / 2);
+        try {
+
+            fineBytes.addBits(originalRow, 32);
+            writeSymbols(symbols, symbolCount, counts, fineBytes);
+            int paddingBits = fineBytes.padToByte();
+            ByteBuffer blockBytes = fineBytes.getBytes();
+            CRC32C checksum = new CRC32C();
+            checksum.update(blockBytes.duplicate());
+
+            ByteBuffer encoded = ByteBuffer.allocate(HuffmanCompression.BLOCK_HEADER_SIZE 
+                    + blockBytes.remaining());
+            encoded.putInt(n);
+            encoded.putInt(blockBytes.remaining());
+            encoded.putInt(paddingBits);
+            encoded.putInt((int) checksum.getValue());
+            encoded.put(blockBytes);
+            return encoded.array();
+        } finally {
+
+            fineBytes.close();
+        }
+    }
+
+    /**
+     * Build the tables for a block's symbols, pick one for each group and write the number 
+     * of symbols, the tables, the selectors and the coded symbols.
+     * Tables start out each covering a slice of the symbols with roughly equal counts, then 
+     * every round assigns each group to its cheapest table and rebuilds the tables from 
+     * the groups assigned to them.
+     */
+    private static void writeSymbols(int[] symbols, int symbolCount, long[] counts, 
+            DirectFineBytes fineBytes) {
+
+        int groupCount = (symbolCount + GROUP_SIZE - 1) / GROUP_SIZE;
+        int tableCount = (symbolCount < 200) ? 1 : (symbolCount < 600) ? 2 
+                : (symbolCount < 1200) ? 3 : (symbolCount < 2400) ? 4 
+                : (symbolCount < 4800) ? 5 : MAX_TABLES;
+
+        int[][] costs = new int[tableCount][ALPHABET_SIZE];
+        long remaining = symbolCount;
+        int symbol = 0;
+        for (int table = 0; table < tableCount; table++) {
+
+            long target = remaining / (tableCount - table);
+            long taken = 0;
+            int first = symbol;
+            while (symbol < ALPHABET_SIZE && (taken < target || symbol == first)) {
+
+                taken += counts[symbol++];
+            }
+            if (table == tableCount - 1) {
+
+                symbol = ALPHABET_SIZE;
+            }
+            for (int i = 0; i < ALPHABET_SIZE; i++) {
+
+                costs[table][i] = (i >= first && i < symbol) ? 0 : 15;
+            }
+            remaining -= taken;
+        }
+
+        int[] selectors = new int[groupCount];
+        CanonicalCode[] codes = new CanonicalCode[tableCount];
+        long[][] tableCounts = new long[tableCount][ALPHABET_SIZE];
+        for (int round = 0; round < TABLE_ROUNDS; round++) {
+
+            for (int table = 0; table < tableCount; table++) {
+
+                Arrays.fill(tableCounts[table], 0);
+            }
+            for (int group = 0; group < groupCount; group++) {
+
+                int start = group * GROUP_SIZE;
+                int end = Math.min(start + GROUP_SIZE, symbolCount);
+                int best = 0;
+                long bestCost = Long.MAX_VALUE;
+                for (int table = 0; table < tableCount; table++) {
+
+                    long cost = 0;
+                    for (int i = start; i < end; i++) {
+
+                        cost += costs[table][symbols[i]];
+                    }
+                    if (cost < bestCost) {
+
+                        bestCost = cost;
+                        best = table;
+                    }
+                }
+                selectors[group] = best;
+                for (int i = start; i < end; i++) {
+
+                    tableCounts[best][symbols[i]]++;
+                }
+            }
+
+            for (int table = 0; table < tableCount; table++) {
+
+                codes[table] = CanonicalCode.fromCounts(tableCounts[table]);
+                for (int i = 0; i < ALPHABET_SIZE; i++) {
+
+                    costs[table][i] = (codes[table].length(i) == 0) 
+                            ? MISSING_CODE_COST : codes[table].length(i);
+                }
+            }
+        }
+
+        fineBytes.addBits(symbolCount, 32);
+        fineBytes.addBits(tableCount, 3);
+        int[] tableOrder = new int[tableCount];
+        for (int table = 0; table < tableCount; table++) {
+
+            tableOrder[table] = table;
+        }
+        for (int group = 0; group < groupCount; group++) {
+
+            int position = 0;
+            while (tableOrder[position] != selectors[group]) {
+
+                position++;
+            }
+            System.arraycopy(tableOrder, 0, tableOrder, 1, position);
+            tableOrder[0] = selectors[group];
+
+            // Unary, position ones and then a zero
+            fineBytes.addBits((1L << (position + 1)) - 2, position + 1);
+        }
+        for (int table = 0; table < tableCount; table++) {
+
+            codes[table].write(fineBytes);
+        }
+
+        for (int i = 0; i < symbolCount; i++) {
+
+            codes[selectors[i / GROUP_SIZE]].encode(fineBytes, symbols[i]);
+        }
+    }
+
+    /**
+     * Add a run of zeros as its length in bijective base 2, least significant digit first.
+     *
+     * @return the new number of symbols.
+     */
+    private static int addZeroRun(int zeroRun, int[] symbols, int symbolCount, long[] counts) {
+
+        int digits = zeroRun - 1;
+        while (true) {
+
+            int symbol = ((digits & 1) != 0) ? RUN_B : RUN_A;
+            symbols[symbolCount++] = symbol;
+            counts[symbol]++;
+            if (digits < 2) {
+                break;
+            }
+            digits = (digits - 2) >>> 1;
+        }
+
+        return symbolCount;
+    }
+
+    /**
+     * Totals for one call to encode.
+     */
+    static class EncodeTotals {
+        long byteCount;
+        int blockCount;
+    }
+}
@@ -0,0 +1,708 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * End to end benchmark of every codec mode over a corpus, run by the benchmark command.
+ * Each corpus file is compressed and decompressed in memory with each mode, the round trip
+ * is checked, and after warming up for WARM_UP_NANOS the best of at least MIN_TIMED_RUNS 
+ * runs taking MIN_TIMED_NANOS is reported, along with the ratio, the peak heap and the 
+ * garbage collections during the runs. The compressed size of the Huffman modes includes 
+ * their table as writeTable stores it, since their frames do not carry it.
+ * <p>
+ * Results are written as JSON with one result object per line, so the output of one run
+ * can be stored as the baseline for later runs. compare reports every result whose ratio
+ * or speed is worse than the baseline's by more than a tolerance.
+ */
+public class Benchmark {
+
+    //~Constants-----------------------------------
+    public static final int DEFAULT_CORPUS_SIZE = 1 << 21;
+    public static final double DEFAULT_RATIO_TOLERANCE = 0.01;
+
+    /**
+     * Timings vary a lot more than ratios between runs, by up to a half on a single core 
+     * where compilation and collection compete with the timed code. Quiet machines can 
+     * pass a tighter tolerance to catch smaller slowdowns.
+     */
+    public static final double DEFAULT_SPEED_TOLERANCE = 0.5;
+
+    public static final String[] MODES = {"chars", "codepoints", "rle", "lz77", "bwt"};
+    private static final long WARM_UP_NANOS = 500000000L;
+    private static final long MIN_TIMED_NANOS = 1000000000L;
+    private static final int MIN_TIMED_RUNS = 3;
+    private static final int WARM_UP_SAMPLE_SIZE = 1 << 16;
+    private static final double MB = 1 << 20;
+
+    /**
+     * Pulls "key": value pairs out of one result line of a baseline, string values keep 
+     * their quotes and escapes.
+     */
+    private static final Pattern JSON_FIELD = 
+            Pattern.compile("\"(\\w+)\":\\s*(\"(?:[^\"\\\\]|\\\\.)*\"|[^,}]+)");
+
+    //~Fields--------------------------------------
+    private final Map<String, byte[]> corpus;
+    private final List<Result> results;
+
+    /**
+     * Set up a benchmark of a corpus.
+     *
+     * @param corpus the name and contents of each corpus file.
+     */
+    public Benchmark(Map<String, byte[]> corpus) {
+
+        this.corpus = corpus;
+        results = new ArrayList<Result>();
+    }
+
+    /**
+     * Generate the standard corpus. The same size always gives the same bytes, so results
+     * can be compared between runs.
+     *
+     * @param size the number of bytes in each corpus file.
+     * @return text, logs, binary records, random bytes and skewed text.
+     */
+    public static Map<String, byte[]> generateCorpus(int size) {
+
+        Map<String, byte[]> corpus = new LinkedHashMap<String, byte[]>();
+        corpus.put("text", generateText(size, new Random(1)));
+        corpus.put("logs", generateLogs(size, new Random(2)));
+        corpus.put("binary", generateRecords(size, new Random(3)));
+
+        byte[] random = new byte[size];
+        new Random(4).nextBytes(random);
+        corpus.put("random", random);
+
+        // Letters with halving probabilities
+        Random skewRandom = new Random(5);
+        byte[] skewed = new byte[size];
+        for (int i = 0; i < size; i++) {
+
+            skewed[i] = (byte) ('a' + Math.min(Integer.numberOfTrailingZeros( 
+                    skewRandom.nextInt() | (1 << 15)), 15));
+        }
+        corpus.put("skewed", skewed);
+
+        return corpus;
+    }
+
+    /**
+     * Generate prose from a Zipf distributed vocabulary, with a few accented and CJK words.
+     */
+    private static byte[] generateText(int size, Random random) {
+
+        String letters = "eeeeeeetttttaaaaooooiiiinnnnsssshhhrrrdddllcuumwfgypbvk";
+        String[] words = new String[2000];
+        for (int i = 0; i < words.length; i++) {
+
+            StringBuilder word = new StringBuilder();
+            int length = 1 + random.nextInt(3) + random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+
+                word.append(letters.charAt(random.nextInt(letters.length())));
+            }
+            if (i % 97 == 0) {
+
+                word.append("\u00E9");
+            } else if (i % 151 == 0) {
+
+                word.setLength(0);
+                word.append((char) (0x4E00 + random.nextInt(2000)));
+                word.append((char) (0x4E00 + random.nextInt(2000)));
+            }
+            words[i] = word.toString();
+        }
+
+        StringBuilder text = new StringBuilder(size + 100);
+        int sentenceLength = 0;
+        boolean capital = true;
+        while (text.length() < size) {
+
+            // Rank r is picked with probability about 1 / r
+            String word = words[(int) Math.pow(words.length, random.nextDouble()) - 1];
+            text.append(capital ? Character.toUpperCase(word.charAt(0)) + word.substring(1)
+                    : word);
+            capital = false;
+            if (++sentenceLength > 5 + random.nextInt(15)) {
+
+                text.append(random.nextInt(8) == 0 ? ".\n" : ". ");
+                sentenceLength = 0;
+                capital = true;
+            } else {
+
+                text.append(random.nextInt(12) == 0 ? ", " : " ");
+            }
+        }
+
+        return truncateUTF8(text.toString().getBytes(StandardCharsets.UTF_8), size);
+    }
+
+    /**
+     * Generate application log lines from a few templates.
+     */
+    private static byte[] generateLogs(int size, Random random) {
+
+        String[] levels = {"INFO ", "INFO ", "INFO ", "DEBUG", "WARN ", "ERROR"};
+        String[] paths = {"/api/users", "/api/orders", "/api/orders/items", "/health", 
+                "/static/app.js", "/login"};
+        StringBuilder logs = new StringBuilder(size + 200);
+        long millis = 1700000000000L;
+        while (logs.length() < size) {
+
+            millis += random.nextInt(50);
+            logs.append(Instant.ofEpochMilli(millis)).append(' ') 
+                    .append(levels[random.nextInt(levels.length)]).append(" [worker-") 
+                    .append(random.nextInt(16)).append("] ");
+            if (random.nextInt(10) == 0) {
+
+                logs.append("Connection pool at ").append(random.nextInt(100))
+                        .append("% capacity\n");
+                continue;
+            }
+            logs.append("GET ").append(paths[random.nextInt(paths.length)])
+                    .append(" from 10.0.").append(random.nextInt(4)).append('.')
+                    .append(random.nextInt(256)).append(" request=")
+                    .append(100000 + random.nextInt(900000)).append(" status=")
+                    .append(random.nextInt(20) == 0 ? 500 : 200).append(" time=")
+                    .append(random.nextInt(random.nextInt(400) + 1)).append("ms\n");
+        }
+
+        return truncateUTF8(logs.toString().getBytes(StandardCharsets.UTF_8), size);
+    }
+
+    /**
+     * Cut UTF-8 bytes down to at most size bytes without splitting a character.
+     */
+    private static byte[] truncateUTF8(byte[] bytes, int size) {
+
+        int end = Math.min(size, bytes.length);
+        while (end > 0 && end < bytes.length && (bytes[end] & 0xC0) == 0x80) {
+
+            end--;
+        }
+        return Arrays.copyOf(bytes, end);
+    }
+
+    /**
+     * Generate fixed size binary records: an id, a type, a timestamp, a measurement and a
+     * zero padded name.
+     */
+    private static byte[] generateRecords(int size, Random random) {
+
+        ByteBuffer records = ByteBuffer.allocate(size + 64);
+        String[] names = {"sensor", "gateway", "pump", "valve", "meter"};
+        long timestamp = 1700000000L;
+        for (int id = 0; records.position() < size; id++) {
+
+            timestamp += random.nextInt(4);
+            records.putInt(id);
+            records.putShort((short) random.nextInt(5));
+            records.putLong(timestamp);
+            records.putFloat(20 + (float) random.nextGaussian());
+            byte[] name = (names[random.nextInt(names.length)] + "-" + random.nextInt(100))
+                    .getBytes(StandardCharsets.US_ASCII);
+            records.put(name);
+            records.put(new byte[16 - name.length]);
+        }
+
+        return Arrays.copyOf(records.array(), size);
+    }
+
+    /**
+     * Load every file in a directory as a corpus file, named by its file name.
+     *
+     * @param directory the directory holding the corpus.
+     */
+    public static Map<String, byte[]> loadCorpus(File directory) throws IOException {
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+
+            throw new FileNotFoundException("Not a directory: " + directory);
+        }
+        Arrays.sort(files);
+
+        Map<String, byte[]> corpus = new LinkedHashMap<String, byte[]>();
+        for (File file : files) {
+
+            if (file.isFile()) {
+
+                corpus.put(file.getName(), Files.readAllBytes(file.toPath()));
+            }
+        }
+
+        return corpus;
+    }
+
+    /**
+     * Run every mode over every corpus file, replacing the results of any earlier run.
+     *
+     * @throws IOException if a mode fails to round trip any corpus file.
+     */
+    public void run() throws IOException {
+
+        results.clear();
+
+        // Compile every mode's code before any of it is timed, so the first results are not 
+        // slowed by code the later ones share
+        for (Map.Entry<String, byte[]> entry : corpus.entrySet()) {
+
+            byte[] sample = Arrays.copyOf(entry.getValue(), 
+                    Math.min(entry.getValue().length, WARM_UP_SAMPLE_SIZE));
+            for (String mode : MODES) {
+
+                for (int i = 0; i < 4; i++) {
+
+                    String text = (mode.equals("lz77") || mode.equals("bwt")) 
+                            ? null : new String(sample, StandardCharsets.ISO_8859_1);
+                    decompress(mode, compress(mode, sample, text), sample, text);
+                }
+            }
+        }
+
+        for (Map.Entry<String, byte[]> entry : corpus.entrySet()) {
+
+            for (String mode : MODES) {
+
+                results.add(run(entry.getKey(), entry.getValue(), mode));
+            }
+        }
+    }
+
+    /**
+     * Run one mode over one corpus file, warming up and then timing it.
+     */
+    private Result run(String name, byte[] data, String mode) throws IOException {
+
+        // Huffman modes code text, bytes that are not UTF-8 are read as Latin-1
+        String text = null;
+        if (!mode.equals("lz77") && !mode.equals("bwt")) {
+
+            try {
+
+                text = StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(ByteBuffer.wrap(data)).toString();
+            } catch (CharacterCodingException exception) {
+
+                text = new String(data, StandardCharsets.ISO_8859_1);
+            }
+        }
+
+        Result result = new Result(name, mode, data.length);
+
+        // Start from a clean heap so the peak is this mode's own
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+
+            if (pool.getType() == MemoryType.HEAP) {
+
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+
+        long bestCompress = Long.MAX_VALUE;
+        long bestDecompress = Long.MAX_VALUE;
+        long phaseEnd = System.nanoTime() + WARM_UP_NANOS;
+        boolean timing = false;
+        int timedRuns = 0;
+        while (!timing || timedRuns < MIN_TIMED_RUNS || System.nanoTime() < phaseEnd) {
+
+            long start = System.nanoTime();
+            Coded compressed = compress(mode, data, text);
+            long compressTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            boolean roundTrip = decompress(mode, compressed, data, text);
+            long decompressTime = System.nanoTime() - start;
+            if (!roundTrip) {
+
+                throw new IOException(mode + " did not round trip " + name);
+            }
+
+            result.compressedBytes = compressed.bytes.length;
+            if (compressed.encoding != null) {
+
+                result.compressedBytes += HuffmanCompression.writeTable(compressed.encoding).length;
+            }
+            if (timing) {
+
+                bestCompress = Math.min(bestCompress, compressTime);
+                bestDecompress = Math.min(bestDecompress, decompressTime);
+                timedRuns++;
+            } else if (System.nanoTime() >= phaseEnd) {
+
+                timing = true;
+                phaseEnd = System.nanoTime() + MIN_TIMED_NANOS;
+            }
+        }
+
+        result.compressMBps = (data.length / MB) / (bestCompress / 1e9);
+        result.decompressMBps = (data.length / MB) / (bestDecompress / 1e9);
+        for (MemoryPoolMXBean pool : heapPools) {
+
+            result.peakHeapMB += pool.getPeakUsage().getUsed() / MB;
+        }
+        result.gcCount = gcCount() - gcCount;
+        result.gcMillis = gcMillis() - gcMillis;
+
+        return result;
+    }
+
+    /**
+     * Compress data, or its text for the Huffman modes, building the encoding as part of it.
+     */
+    private Coded compress(String mode, byte[] data, String text) throws IOException {
+
+        if (mode.equals("lz77")) {
+
+            return new Coded(new LZ77Encoder().encode(data), null);
+        }
+        if (mode.equals("bwt")) {
+
+            return new Coded(new BWTEncoder().encode(data), null);
+        }
+
+        HuffmanCompression hc = new HuffmanCompression();
+        boolean codePoints = !mode.equals("chars");
+        boolean runs = mode.equals("rle");
+        Map<Integer, String> encoding = hc.codePointEncoding( 
+                hc.symbolCounts(text, codePoints, runs));
+        HuffmanEncoder encoder;
+        if (runs) {
+
+            encoder = HuffmanEncoder.forRunLengths(encoding);
+        } else if (codePoints) {
+
+            encoder = HuffmanEncoder.forCodePoints(encoding);
+        } else {
+
+            Map<Character, String> charEncoding = new HashMap<Character, String>();
+            for (Map.Entry<Integer, String> entry : encoding.entrySet()) {
+
+                charEncoding.put((char) entry.getKey().intValue(), entry.getValue());
+            }
+            encoder = new HuffmanEncoder(charEncoding);
+        }
+
+        return new Coded(encoder.encode(text), encoding);
+    }
+
+    /**
+     * Decompress and check the result against the original.
+     */
+    private boolean decompress(String mode, Coded coded, byte[] data, String text)
+            throws IOException {
+
+        if (mode.equals("lz77")) {
+
+            return Arrays.equals(new LZ77Decoder(true).decode(coded.bytes), data);
+        }
+        if (mode.equals("bwt")) {
+
+            return Arrays.equals(new BWTDecoder(true, Runtime.getRuntime().availableProcessors())
+                    .decode(coded.bytes), data);
+        }
+
+        Map<String, Integer> encodingMap = new HashMap<String, Integer>();
+        for (Map.Entry<Integer, String> entry : coded.encoding.entrySet()) {
+
+            encodingMap.put(entry.getValue(), entry.getKey());
+        }
+        return new HuffmanDecoder(encodingMap).decode(coded.bytes).equals(text);
+    }
+
+    /**
+     * Get the total number of collections by every garbage collector.
+     */
+    private static long gcCount() {
+
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+
+            count += Math.max(collector.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    /**
+     * Get the total time spent collecting by every garbage collector.
+     */
+    private static long gcMillis() {
+
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+
+            millis += Math.max(collector.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+
+    /**
+     * Get the results of the last run as JSON, with one result per line.
+     */
+    public String toJson() {
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n\"java\": \"").append(System.getProperty("java.version"))
+                .append("\",\n\"processors\": ").append(Runtime.getRuntime().availableProcessors())
+                .append(",\n\"results\": [\n");
+        for (int i = 0; i < results.size(); i++) {
+
+            json.append(results.get(i).toJson()).append((i + 1 < results.size()) ? ",\n" : "\n");
+        }
+        json.append("]\n}\n");
+
+        return json.toString();
+    }
+
+    /**
+     * Compare the results of the last run against a baseline written by toJson.
+     * Results missing from the baseline are skipped.
+     *
+     * @param baseline the baseline file.
+     * @param ratioTolerance how much larger, as a fraction, a compressed size may get.
+     * @param speedTolerance how much slower, as a fraction, compressing or decompressing
+     *          may get.
+     * @return a description of each regression, empty if there are none.
+     */
+    public List<String> compare(File baseline, double ratioTolerance, double speedTolerance)
+            throws IOException {
+
+        Map<String, Result> current = new HashMap<String, Result>();
+        for (Result result : results) {
+
+            current.put(result.corpus + "/" + result.mode, result);
+        }
+
+        List<String> regressions = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader( 
+                new FileInputStream(baseline), StandardCharsets.UTF_8));
+        try {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                Map<String, String> fields = new HashMap<String, String>();
+                Matcher matcher = JSON_FIELD.matcher(line);
+                while (matcher.find()) {
+
+                    fields.put(matcher.group(1), unquote(matcher.group(2).trim()));
+                }
+                if (!fields.containsKey("corpus") || !fields.containsKey("mode")) {
+                    continue;
+                }
+
+                String key = fields.get("corpus") + "/" + fields.get("mode");
+                Result result = current.get(key);
+                if (result == null) {
+                    continue;
+                }
+                double ratio = Double.parseDouble(fields.get("ratio"));
+                double compressMBps = Double.parseDouble(fields.get("compressMBps"));
+                double decompressMBps = Double.parseDouble(fields.get("decompressMBps"));
+                if (result.ratio() > ratio * (1 + ratioTolerance)) {
+
+                    regressions.add(String.format(Locale.ROOT, "%s ratio %.4f, baseline %.4f", 
+                            key, result.ratio(), ratio));
+                }
+                if (result.compressMBps < compressMBps * (1 - speedTolerance)) {
+
+                    regressions.add(String.format(Locale.ROOT, 
+                            "%s compress %.1f MB/s, baseline %.1f MB/s", 
+                            key, result.compressMBps, compressMBps));
+                }
+                if (result.decompressMBps < decompressMBps * (1 - speedTolerance)) {
+
+                    regressions.add(String.format(Locale.ROOT, 
+                            "%s decompress %.1f MB/s, baseline %.1f MB/s", 
+                            key, result.decompressMBps, decompressMBps));
+                }
+            }
+        } finally {
+
+            reader.close();
+        }
+
+        return regressions;
+    }
+
+    /**
+     * Write a string as a JSON string, escaping quotes, backslashes and control characters.
+     */
+    static String quote(String value) {
+
+        StringBuilder json = new StringBuilder(value.length() + 2);
+        json.append('"');
+        char c;
+        for (int i = 0; i < value.length(); i++) {
+
+            c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+
+                json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+
+                json.append(c);
+            }
+        }
+
+        return json.append('"').toString();
+    }
+
+    /**
+     * Read back a value matched by JSON_FIELD, undoing quote for strings and leaving 
+     * other values as they are.
+     */
+    static String unquote(String value) {
+
+        if (value.length() < 2 || value.charAt(0) != '"') {
+
+            return value;
+        }
+        StringBuilder text = new StringBuilder(value.length());
+        char c;
+        for (int i = 1; i < value.length() - 1; i++) {
+
+            c = value.charAt(i);
+            if (c != '\\') {
+
+                text.append(c);
+                continue;
+            }
+            c = value.charAt(++i);
+            switch (c) {
+                case 'u':
+                    text.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                case 'n':
+                    text.append('\n');
+                    break;
+                case 't':
+                    text.append('\t');
+                    break;
+                case 'r':
+                    text.append('\r');
+                    break;
+                case 'b':
+                    text.append('\b');
+                    break;
+                case 'f':
+                    text.append('\f');
+                    break;
+                default:
+                    text.append(c);
+            }
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Compressed bytes with the encoding they need, if it is not stored in them.
+     */
+    static class Coded {
+        final byte[] bytes;
+        final Map<Integer, String> encoding;
+
+        Coded(byte[] bytes, Map<Integer, String> encoding) {
+
+            this.bytes = bytes;
+            this.encoding = encoding;
+        }
+    }
+
+    /**
+     * The measurements of one mode over one corpus file.
+     */
+    static class Result {
+        final String corpus;
+        final String mode;
+        final long inputBytes;
+        long compressedBytes;
+        double compressMBps;
+        double decompressMBps;
+        double peakHeapMB;
+        long gcCount;
+        long gcMillis;
+
+        Result(String corpus, String mode, long inputBytes) {
+
+            this.corpus = corpus;
+            this.mode = mode;
+            this.inputBytes = inputBytes;
+        }
+
+        /**
+         * Get the compressed size as a fraction of the input size.
+         */
+        double ratio() {
+
+            return (inputBytes == 0) ? 0 : (double) compressedBytes / inputBytes;
+        }
+
+        String toJson() {
+
+            return String.format(Locale.ROOT, "{\"corpus\": %s, \"mode\": \"%s\", "
+                    + "\"inputBytes\": %d, \"compressedBytes\": %d, \"ratio\": %.4f, "
+                    + "\"compressMBps\": %.1f, \"decompressMBps\": %.1f, \"peakHeapMB\": %.1f, "
+                    + "\"gcCount\": %d, \"gcMillis\": %d}", 
+                    quote(corpus), mode, inputBytes, compressedBytes, ratio(), 
+                    compressMBps, decompressMBps, peakHeapMB, gcCount, gcMillis);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Reads bits most significant first from a range of a byte array, the order DirectFineBytes 
+ * writes them in. Bits are read through a 64 bit window that is topped up a byte at a time, 
+ * so codes from a HuffmanDecodeTable and raw bits can be mixed freely in one stream.
+ */
+public class BitReader {
+
+    //~Fields--------------------------------------
+    private byte[] data;
+    private int index;
+    private int end;
+
+    /**
+     * The next bits of input, right aligned. Bits above windowBits are left over garbage.
+     */
+    private long window;
+
+    /**
+     * The number of bits held in window.
+     */
+    private int windowBits;
+
+    /**
+     * Set up to read length bytes of data starting at offset.
+     */
+    public BitReader(byte[] data, int offset, int length) {
+
+        reset(data, offset, length);
+    }
+
+    /**
+     * Start reading length bytes of data starting at offset, dropping anything left unread.
+     */
+    public void reset(byte[] data, int offset, int length) {
+
+        this.data = data;
+        index = offset;
+        end = offset + length;
+        window = 0;
+        windowBits = 0;
+    }
+
+    /**
+     * Top up the window to at least 57 bits if there is any input left.
+     */
+    private void refill() {
+
+        while (windowBits <= 56 && index < end) {
+
+            window = (window << 8) | (data[index++] & 0xFF);
+            windowBits += 8;
+        }
+    }
+
+    /**
+     * Read numBits raw bits.
+     *
+     * @param numBits the number of bits to read, 0 to 32.
+     * @return the bits, right aligned.
+     */
+    public int readBits(int numBits) throws IOException {
+
+        if (windowBits < numBits) {
+
+            refill();
+            if (windowBits < numBits) {
+
+                throw new EOFException("Encoded data ended " + numBits + " bits short");
+            }
+        }
+        windowBits -= numBits;
+        return (int) ((window >>> windowBits) & ((1L << numBits) - 1));
+    }
+
+    /**
+     * Read one code and return the symbol it encodes in table.
+     *
+     * @param table the table for the code's alphabet.
+     * @param decoded the number of symbols decoded so far, for error messages.
+     */
+    public int decodeSymbol(HuffmanDecodeTable table, long decoded) throws IOException {
+
+        refill();
+        long symbol = table.decodeSymbol(window, windowBits, decoded);
+        windowBits -= (int) (symbol & 0xFF);
+        return (int) (symbol >>> 8);
+    }
+
+    /**
+     * Get the number of bits not yet read.
+     */
+    public long remainingBits() {
+
+        return windowBits + ((long) (end - index) * 8);
+    }
+}
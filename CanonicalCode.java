@@ -0,0 +1,284 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A canonical Huffman code over a small alphabet of int symbols, described fully by the code 
+ * length of each symbol. Formats that carry their own codes, such as the LZ77 streams, write 
+ * just the lengths and rebuild the codes from them on the way back in.
+ * A code never changes once built, so it can be shared by any number of threads.
+ */
+public class CanonicalCode {
+
+    //~Constants-----------------------------------
+    /**
+     * The number of bits each code length is written with.
+     */
+    static final int LENGTH_BITS = 6;
+
+    /**
+     * The number of bits after a zero length giving how many more zeros follow it.
+     */
+    static final int ZERO_RUN_BITS = 5;
+    private static final int MAX_ZERO_RUN = (1 << ZERO_RUN_BITS) - 1;
+
+    //~Fields--------------------------------------
+    /**
+     * The code length of each symbol, 0 for symbols without a code.
+     */
+    private final int[] lengths;
+
+    /**
+     * The code of each symbol, right aligned.
+     */
+    private final long[] codes;
+
+    /**
+     * Build the code from the length of each symbol's code. Codes are handed out in order 
+     * of length and then symbol, the same order HuffmanCompression uses.
+     *
+     * @param lengths the code length of each symbol, 0 for symbols without a code.
+     */
+    public CanonicalCode(int[] lengths) {
+
+        int[] lengthCounts = new int[DirectFineBytes.MAX_CODE_LENGTH + 1];
+        for (int length : lengths) {
+
+            if (length < 0 || length > DirectFineBytes.MAX_CODE_LENGTH) {
+
+                throw new IllegalArgumentException("Invalid code length: " + length);
+            }
+            lengthCounts[length]++;
+        }
+        lengthCounts[0] = 0;
+
+        // The first code of each length follows on from the codes of the length before it
+        long[] nextCode = new long[DirectFineBytes.MAX_CODE_LENGTH + 1];
+        long code = 0;
+        for (int length = 1; length <= DirectFineBytes.MAX_CODE_LENGTH; length++) {
+
+            code = (code + lengthCounts[length - 1]) << 1;
+            nextCode[length] = code;
+            if (code + lengthCounts[length] > (1L << length)) {
+
+                throw new IllegalArgumentException("Too many codes of length " + length);
+            }
+        }
+
+        this.lengths = lengths.clone();
+        codes = new long[lengths.length];
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+
+            if (lengths[symbol] != 0) {
+
+                codes[symbol] = nextCode[lengths[symbol]]++;
+            }
+        }
+    }
+
+    /**
+     * Build the Huffman code for counts of each symbol.
+     *
+     * @param counts the number of times each symbol occurs, indexed by symbol.
+     */
+    public static CanonicalCode fromCounts(long[] counts) {
+
+        return new CanonicalCode(codeLengths(counts));
+    }
+
+    /**
+     * Find the length of each symbol's Huffman code by building the tree over node indexes, 
+     * leaves first and then each inner node as it is made, so every parent comes after its 
+     * children and depths can be filled in from the root down in one pass.
+     * A lone symbol still gets a one bit code.
+     *
+     * @param counts the number of times each symbol occurs, indexed by symbol.
+     * @return the code length of each symbol, 0 for symbols that do not occur.
+     */
+    static int[] codeLengths(long[] counts) {
+
+        int[] lengths = new int[counts.length];
+        int[] leafSymbols = new int[counts.length];
+        int leafCount = 0;
+        for (int symbol = 0; symbol < counts.length; symbol++) {
+
+            if (counts[symbol] != 0) {
+
+                leafSymbols[leafCount++] = symbol;
+            }
+        }
+        if (leafCount == 1) {
+
+            lengths[leafSymbols[0]] = 1;
+        }
+        if (leafCount <= 1) {
+
+            return lengths;
+        }
+
+        final long[] weights = new long[(2 * leafCount) - 1];
+        int[] parents = new int[weights.length];
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(leafCount, 
+                new Comparator<Integer>() {
+                    public int compare(Integer n1, Integer n2) {
+
+                        int weightOrder = Long.compare(weights[n1], weights[n2]);
+                        return (weightOrder != 0) ? weightOrder : n1.compareTo(n2);
+                    }
+                });
+        for (int leaf = 0; leaf < leafCount; leaf++) {
+
+            weights[leaf] = counts[leafSymbols[leaf]];
+            queue.add(leaf);
+        }
+        for (int node = leafCount; node < weights.length; node++) {
+
+            int left = queue.poll();
+            int right = queue.poll();
+            weights[node] = weights[left] + weights[right];
+            parents[left] = node;
+            parents[right] = node;
+            queue.add(node);
+        }
+
+        int[] depths = new int[weights.length];
+        for (int node = weights.length - 2; node >= 0; node--) {
+
+            depths[node] = depths[parents[node]] + 1;
+        }
+        for (int leaf = 0; leaf < leafCount; leaf++) {
+
+            lengths[leafSymbols[leaf]] = depths[leaf];
+        }
+
+        return lengths;
+    }
+
+    /**
+     * Read the code lengths written by write and rebuild the code from them.
+     *
+     * @param in where to read the lengths from.
+     * @param alphabetSize the number of symbols in the alphabet.
+     */
+    public static CanonicalCode read(BitReader in, int alphabetSize) throws IOException {
+
+        int[] lengths = new int[alphabetSize];
+        for (int symbol = 0; symbol < alphabetSize; symbol++) {
+
+            lengths[symbol] = in.readBits(LENGTH_BITS);
+            if (lengths[symbol] == 0) {
+
+                symbol += in.readBits(ZERO_RUN_BITS);
+            }
+        }
+
+        try {
+
+            return new CanonicalCode(lengths);
+        } catch (IllegalArgumentException exception) {
+
+            throw new IOException("Invalid code lengths: " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Write the code length of every symbol in the alphabet. 
+     * Each zero length is followed by the number of zeros after it, up to MAX_ZERO_RUN, 
+     * so a sparse alphabet takes up little room.
+     */
+    public void write(DirectFineBytes out) {
+
+        int run;
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+
+            out.addBits(lengths[symbol], LENGTH_BITS);
+            if (lengths[symbol] != 0) {
+                continue;
+            }
+            for (run = 0; run < MAX_ZERO_RUN && symbol + 1 < lengths.length 
+                    && lengths[symbol + 1] == 0; run++) {
+
+                symbol++;
+            }
+            out.addBits(run, ZERO_RUN_BITS);
+        }
+    }
+
+    /**
+     * Add the code of a symbol to out.
+     */
+    public void encode(DirectFineBytes out, int symbol) {
+
+        if (lengths[symbol] == 0) {
+
+            throw new IllegalArgumentException("No code for symbol " + symbol);
+        }
+        out.addBits(codes[symbol], lengths[symbol]);
+    }
+
+    /**
+     * Get the code length of a symbol, 0 if it has no code.
+     */
+    public int length(int symbol) {
+
+        return lengths[symbol];
+    }
+
+    /**
+     * Get the number of symbols in the alphabet.
+     */
+    public int alphabetSize() {
+
+        return lengths.length;
+    }
+
+    /**
+     * Build a table for decoding this code.
+     *
+     * @param lookupBits the number of bits to index the table with.
+     */
+    public HuffmanDecodeTable decodeTable(int lookupBits) {
+
+        Map<String, Integer> encodingMap = new HashMap<String, Integer>();
+        StringBuilder code = new StringBuilder();
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+
+            if (lengths[symbol] == 0) {
+                continue;
+            }
+            code.setLength(0);
+            String bits = Long.toBinaryString(codes[symbol]);
+            for (int i = bits.length(); i < lengths[symbol]; i++) {
+
+                code.append('0');
+            }
+            code.append(bits);
+            encodingMap.put(code.toString(), symbol);
+        }
+
+        return new HuffmanDecodeTable(encodingMap, lookupBits, 1);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A blocking client for a CompressionServer.
+ * The request methods send one request and wait for its response. To pipeline, call send 
+ * for several requests and then receive once for each, which flushes the requests and 
+ * returns the responses in the order they were sent. The server stops reading a connection 
+ * whose responses are not being read, so keep the number of requests sent ahead of their 
+ * responses bounded, a few dozen at most, or both sides can end up waiting on a full socket.
+ * A client is used by one thread at a time.
+ */
+public class CompressionClient {
+
+    //~Fields--------------------------------------
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Connect to a server.
+     *
+     * @param host the server's host.
+     * @param port the server's port.
+     */
+    public CompressionClient(String host, int port) throws IOException {
+
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Build the connection's table from a sample of the text it will code.
+     *
+     * @param sample text like that to be coded.
+     * @param runs true to code runs with run symbols.
+     * @return the table, which useTable takes on later connections.
+     */
+    public byte[] negotiateTable(String sample, boolean runs) throws IOException {
+
+        byte[] text = sample.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[text.length + 1];
+        payload[0] = runs ? CompressionServer.TABLE_RUNS : 0;
+        System.arraycopy(text, 0, payload, 1, text.length);
+        return request(CompressionServer.OP_TABLE, payload);
+    }
+
+    /**
+     * Use a table returned by negotiateTable for the rest of the connection.
+     *
+     * @param table the table.
+     */
+    public void useTable(byte[] table) throws IOException {
+
+        request(CompressionServer.OP_USE_TABLE, table);
+    }
+
+    /**
+     * Code text with the connection's table.
+     *
+     * @param text the text to code.
+     * @return a Huffman frame holding no codes.
+     */
+    public byte[] compress(String text) throws IOException {
+
+        return request(CompressionServer.OP_HUFFMAN, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a frame from any of the compress requests.
+     *
+     * @param frame the frame.
+     * @return UTF-8 text for Huffman frames, the original bytes for the others.
+     */
+    public byte[] decompress(byte[] frame) throws IOException {
+
+        return request(CompressionServer.OP_DECOMPRESS, frame);
+    }
+
+    /**
+     * Send a request and wait for its response.
+     *
+     * @param op one of the CompressionServer op codes.
+     * @param payload the request payload.
+     * @return the response payload.
+     */
+    public byte[] request(byte op, byte[] payload) throws IOException {
+
+        send(op, payload);
+        return receive();
+    }
+
+    /**
+     * Send a request without waiting for its response. It may stay buffered until 
+     * the next receive.
+     *
+     * @param op one of the CompressionServer op codes.
+     * @param payload the request payload.
+     */
+    public void send(byte op, byte[] payload) throws IOException {
+
+        out.writeInt(payload.length);
+        out.writeByte(op);
+        out.write(payload);
+    }
+
+    /**
+     * Wait for the response to the oldest request not yet received.
+     *
+     * @return the response payload.
+     * @throws IOException holding the server's message if the request failed.
+     */
+    public byte[] receive() throws IOException {
+
+        out.flush();
+        int length = in.readInt();
+        byte status = in.readByte();
+        if (length < 0) {
+
+            throw new IOException("Invalid response length: " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        if (status != CompressionServer.STATUS_OK) {
+
+            throw new IOException("Request failed: " 
+                    + new String(payload, StandardCharsets.UTF_8));
+        }
+
+        return payload;
+    }
+
+    /**
+     * Close the connection.
+     */
+    public void close() throws IOException {
+
+        socket.close();
+    }
+}
@@ -0,0 +1,626 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A TCP server compressing and decompressing messages for local clients, run by the serve 
+ * command. One thread reads and writes every connection without blocking and a fixed pool 
+ * of workers runs the codecs, so throughput grows with the number of workers up to the 
+ * number of cores.
+ * <p>
+ * Requests and responses are framed the same way: the payload length as an int, an op code 
+ * or status byte, then the payload. Clients may pipeline any number of requests without 
+ * waiting, and the responses come back in the order the requests were sent. A failed 
+ * request gets a STATUS_ERROR response holding the message as UTF-8 and the connection 
+ * stays open, only a malformed frame closes it. A request's buffer grows as its bytes 
+ * arrive rather than to the length its header claims, and a connection is not read while 
+ * too many requests or request bytes wait for their responses.
+ * <p>
+ * A connection negotiates a Huffman table once, with OP_TABLE from a sample of its text or 
+ * OP_USE_TABLE with a table from an earlier connection. Every OP_HUFFMAN message is then 
+ * coded with the table and carries no codes of its own, which for short messages costs far 
+ * less than the codes an LZ77 or block sorted frame carries. The table is built with an 
+ * escape code, so text the sample did not hold still codes.
+ */
+public class CompressionServer {
+
+    //~Constants-----------------------------------
+    public static final int DEFAULT_PORT = 7341;
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 1 << 26;
+
+    /**
+     * Build a table from a sample, the payload is a flags byte then the sample as UTF-8.
+     * The response holds the table, see HuffmanCompression.writeTable.
+     */
+    public static final byte OP_TABLE = 1;
+
+    /**
+     * Use a table returned by OP_TABLE, the payload is the table.
+     */
+    public static final byte OP_USE_TABLE = 2;
+
+    /**
+     * Code UTF-8 text with the connection's table into a Huffman frame.
+     */
+    public static final byte OP_HUFFMAN = 3;
+    public static final byte OP_LZ77 = 4;
+    public static final byte OP_BWT = 5;
+
+    /**
+     * Decode any frame, Huffman frames with the connection's table. The response holds 
+     * UTF-8 text for Huffman frames and the original bytes for the others.
+     */
+    public static final byte OP_DECOMPRESS = 6;
+
+    /**
+     * OP_TABLE flag to code runs with run symbols, as the rle option does.
+     */
+    public static final byte TABLE_RUNS = 1;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+    static final int FRAME_HEADER_SIZE = 5;
+
+    /**
+     * Requests a connection may have waiting for their responses before it is read again.
+     */
+    private static final int MAX_PIPELINED = 64;
+
+    /**
+     * Request bytes a connection may have waiting for their responses before it is read 
+     * again, so a connection holds at most this plus the request being read.
+     */
+    private static final long MAX_PENDING_BYTES = 1 << 26;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    //~Fields--------------------------------------
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final int maxMessageSize;
+
+    /**
+     * Connections with a response finished by a worker, for the selector thread to write.
+     */
+    private final Queue<Connection> finished;
+    private volatile boolean closed;
+
+    /**
+     * Bind a server, which serves nothing until run is called.
+     *
+     * @param address the address to listen on, port 0 picks a free port.
+     * @param workerCount the number of requests coded at once.
+     * @param maxMessageSize the largest request payload accepted, larger ones close 
+     *          the connection.
+     */
+    public CompressionServer(InetSocketAddress address, int workerCount, int maxMessageSize) 
+            throws IOException {
+
+        if (workerCount < 1) {
+
+            throw new IllegalArgumentException("workerCount must be at least 1: " + workerCount);
+        }
+        if (maxMessageSize < 0) {
+
+            throw new IllegalArgumentException("maxMessageSize must not be negative: " 
+                    + maxMessageSize);
+        }
+        this.maxMessageSize = maxMessageSize;
+        finished = new ConcurrentLinkedQueue<Connection>();
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        workers = Executors.newFixedThreadPool(workerCount);
+    }
+
+    /**
+     * Get the port the server is listening on.
+     */
+    public int getPort() {
+
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Serve connections on the calling thread until close is called.
+     */
+    public void run() throws IOException {
+
+        ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try {
+
+            while (!closed) {
+
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+
+                    try {
+
+                        if (key.isAcceptable()) {
+
+                            accept();
+                        } else {
+
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isWritable()) {
+
+                                write(connection);
+                            }
+                            if (key.isValid() && key.isReadable()) {
+
+                                read(connection, readBuffer);
+                            }
+                        }
+                    } catch (CancelledKeyException e) {
+
+                        // Closed while handling an earlier key
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                Connection connection;
+                while ((connection = finished.poll()) != null) {
+
+                    write(connection);
+                }
+            }
+        } finally {
+
+            workers.shutdownNow();
+            for (SelectionKey key : selector.keys()) {
+
+                key.channel().close();
+            }
+            selector.close();
+        }
+    }
+
+    /**
+     * Stop serving, closing every connection. Requests being coded are abandoned.
+     */
+    public void close() {
+
+        closed = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Accept a waiting connection, if any.
+     */
+    private void accept() throws IOException {
+
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    /**
+     * Read what has arrived on a connection and start a worker on each complete request.
+     */
+    private void read(Connection connection, ByteBuffer readBuffer) {
+
+        readBuffer.clear();
+        int bytesRead;
+        try {
+
+            bytesRead = connection.channel.read(readBuffer);
+        } catch (IOException e) {
+
+            connection.close();
+            return;
+        }
+        if (bytesRead == -1) {
+
+            // The client is done sending, close once every response is written
+            connection.inputEnded = true;
+            connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+            write(connection);
+            return;
+        }
+
+        readBuffer.flip();
+        while (readBuffer.hasRemaining()) {
+
+            if (connection.payload == null) {
+
+                transfer(readBuffer, connection.header);
+                if (connection.header.hasRemaining()) {
+
+                    break;
+                }
+                connection.header.flip();
+                int length = connection.header.getInt();
+                connection.op = connection.header.get();
+                connection.header.clear();
+                if (length < 0 || length > maxMessageSize) {
+
+                    connection.close();
+                    return;
+                }
+                connection.payloadLength = length;
+                connection.payload = ByteBuffer.allocate(Math.min(length, READ_BUFFER_SIZE));
+            }
+
+            transfer(readBuffer, connection.payload);
+            if (!connection.payload.hasRemaining() 
+                    && connection.payload.capacity() < connection.payloadLength) {
+
+                // Only grow once the bytes arrive, doubling up to the length sent
+                ByteBuffer grown = ByteBuffer.allocate((int) Math.min( 
+                        connection.payloadLength, 2L * connection.payload.capacity()));
+                connection.payload.flip();
+                grown.put(connection.payload);
+                connection.payload = grown;
+                continue;
+            }
+            if (connection.payload.hasRemaining()) {
+
+                break;
+            }
+            submit(connection, connection.op, connection.payload.array());
+            connection.payload = null;
+        }
+
+        if (readPaused(connection)) {
+
+            connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Check whether a connection has enough requests waiting for their responses that 
+     * it should not be read.
+     */
+    private static boolean readPaused(Connection connection) {
+
+        return connection.pending.size() >= MAX_PIPELINED 
+                || connection.pendingBytes >= MAX_PENDING_BYTES;
+    }
+
+    /**
+     * Copy as much of from as fits into to.
+     */
+    private static void transfer(ByteBuffer from, ByteBuffer to) {
+
+        int count = Math.min(from.remaining(), to.remaining());
+        int limit = from.limit();
+        from.limit(from.position() + count);
+        to.put(from);
+        from.limit(limit);
+    }
+
+    /**
+     * Queue a request on the workers, holding its place in the connection's responses.
+     * A table request replaces the connection's table at once, so the requests after it 
+     * wait for it while those before it keep the old one. Workers take requests in the 
+     * order they are submitted, so a table is always being built by the time a request 
+     * waits for it.
+     */
+    private void submit(final Connection connection, final byte op, final byte[] payload) {
+
+        final Response response = new Response(payload.length);
+        connection.pending.add(response);
+        connection.pendingBytes += payload.length;
+
+        final FutureTask<Table> newTable;
+        if (op == OP_TABLE || op == OP_USE_TABLE) {
+
+            newTable = new FutureTask<Table>(new Callable<Table>() {
+                public Table call() throws IOException {
+
+                    return (op == OP_TABLE) ? Table.fromSample(payload) : Table.read(payload);
+                }
+            });
+            connection.table = newTable;
+        } else {
+
+            newTable = null;
+        }
+
+        final Future<Table> table = connection.table;
+        workers.execute(new Runnable() {
+            public void run() {
+
+                byte status = STATUS_OK;
+                byte[] result;
+                try {
+
+                    if (newTable != null) {
+
+                        newTable.run();
+                        Table built = table(newTable);
+                        result = (op == OP_TABLE) ? built.bytes : new byte[0];
+                    } else {
+
+                        result = process(op, payload, table);
+                    }
+                } catch (Throwable e) {
+
+                    // Errors too, such as running out of memory, or the client never hears
+                    status = STATUS_ERROR;
+                    String message = (e.getMessage() != null) ? e.getMessage() : e.toString();
+                    result = message.getBytes(StandardCharsets.UTF_8);
+                }
+
+                ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + result.length);
+                frame.putInt(result.length);
+                frame.put(status);
+                frame.put(result);
+                frame.flip();
+                response.frame = frame;
+                finished.add(connection);
+                selector.wakeup();
+            }
+        });
+    }
+
+    /**
+     * Run a request that is not a table request.
+     *
+     * @param table the connection's table when the request was read, or null.
+     */
+    private static byte[] process(byte op, byte[] payload, Future<Table> table) 
+            throws IOException {
+
+        switch (op) {
+            case OP_HUFFMAN:
+                return table(table).encoder.encode(decodeUTF8(payload));
+            case OP_LZ77:
+                return new LZ77Encoder().encode(payload);
+            case OP_BWT:
+                return new BWTEncoder(BWTEncoder.DEFAULT_LEVEL, 1).encode(payload);
+            case OP_DECOMPRESS:
+                int magic = (payload.length >= 4) ? ByteBuffer.wrap(payload).getInt() : 0;
+                if (magic == LZ77Encoder.MAGIC) {
+
+                    return new LZ77Decoder(true).decode(payload);
+                }
+                if (magic == BWTEncoder.MAGIC) {
+
+                    return new BWTDecoder(true, 1).decode(payload);
+                }
+                return table(table).decoder.decode(payload).getBytes(StandardCharsets.UTF_8);
+            default:
+                throw new IOException("Unknown op code: " + op);
+        }
+    }
+
+    /**
+     * Wait for a connection's table.
+     */
+    private static Table table(Future<Table> table) throws IOException {
+
+        if (table == null) {
+
+            throw new IOException("No table, send OP_TABLE or OP_USE_TABLE first");
+        }
+        try {
+
+            return table.get();
+        } catch (ExecutionException e) {
+
+            Throwable cause = e.getCause();
+            throw new IOException("Table request failed: " 
+                    + ((cause.getMessage() != null) ? cause.getMessage() : cause.toString()));
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the table");
+        }
+    }
+
+    /**
+     * Decode UTF-8, failing on malformed input rather than replacing it.
+     */
+    private static String decodeUTF8(byte[] bytes) throws IOException {
+
+        return StandardCharsets.UTF_8.newDecoder() 
+                .onMalformedInput(CodingErrorAction.REPORT) 
+                .onUnmappableCharacter(CodingErrorAction.REPORT) 
+                .decode(ByteBuffer.wrap(bytes)).toString();
+    }
+
+    /**
+     * Write a connection's finished responses in order, until one is still being coded or 
+     * the socket is full.
+     */
+    private void write(Connection connection) {
+
+        if (!connection.key.isValid()) {
+
+            return;
+        }
+        try {
+
+            Response head;
+            while ((head = connection.pending.peek()) != null && head.frame != null) {
+
+                connection.channel.write(head.frame);
+                if (head.frame.hasRemaining()) {
+
+                    break;
+                }
+                connection.pending.poll();
+                connection.pendingBytes -= head.requestBytes;
+            }
+        } catch (IOException e) {
+
+            connection.close();
+            return;
+        }
+
+        Response head = connection.pending.peek();
+        int ops = connection.inputEnded ? 0 : SelectionKey.OP_READ;
+        if (head != null && head.frame != null) {
+
+            ops |= SelectionKey.OP_WRITE;
+        } else if (head == null && connection.inputEnded) {
+
+            connection.close();
+            return;
+        }
+        if (readPaused(connection)) {
+
+            ops &= ~SelectionKey.OP_READ;
+        }
+        connection.key.interestOps(ops);
+    }
+
+    /**
+     * The coders for a connection's table, along with the table as sent to the client.
+     */
+    static class Table {
+        final HuffmanEncoder encoder;
+        final HuffmanDecoder decoder;
+        final byte[] bytes;
+
+        Table(Map<Integer, String> encoding, byte[] bytes) {
+
+            Map<String, Integer> encodingMap = new HashMap<String, Integer>();
+            for (Map.Entry<Integer, String> entry : encoding.entrySet()) {
+
+                encodingMap.put(entry.getValue(), entry.getKey());
+            }
+            this.decoder = new HuffmanDecoder(encodingMap);
+            this.encoder = HuffmanCompression.encoderFor(encoding);
+            this.bytes = bytes;
+        }
+
+        /**
+         * Build a table from an OP_TABLE payload, with an escape code for symbols 
+         * the sample does not hold.
+         */
+        static Table fromSample(byte[] payload) throws IOException {
+
+            if (payload.length == 0) {
+
+                throw new IOException("No table flags");
+            }
+            boolean runs = (payload[0] & TABLE_RUNS) != 0;
+            String sample = decodeUTF8(Arrays.copyOfRange(payload, 1, payload.length));
+            HuffmanCompression hc = new HuffmanCompression();
+            long[] counts = hc.symbolCounts(sample, true, runs);
+            counts[HuffmanCompression.ESCAPE_CODE_POINT]++;
+            Map<Integer, String> encoding = hc.codePointEncoding(counts);
+            return new Table(encoding, HuffmanCompression.writeTable(encoding));
+        }
+
+        /**
+         * Build a table from an OP_USE_TABLE payload.
+         */
+        static Table read(byte[] payload) throws IOException {
+
+            return new Table(HuffmanCompression.readTable(payload), payload);
+        }
+    }
+
+    /**
+     * A response in its place among a connection's responses, with no frame until 
+     * a worker has finished it.
+     */
+    static class Response {
+        final int requestBytes;
+        volatile ByteBuffer frame;
+
+        Response(int requestBytes) {
+
+            this.requestBytes = requestBytes;
+        }
+    }
+
+    /**
+     * The state of one client connection, only touched by the selector thread apart from 
+     * the responses the workers fill in.
+     */
+    static class Connection {
+        final SocketChannel channel;
+        final ByteBuffer header;
+        final Queue<Response> pending;
+        SelectionKey key;
+        ByteBuffer payload;
+        int payloadLength;
+        byte op;
+        Future<Table> table;
+        boolean inputEnded;
+
+        /**
+         * The payload bytes of the requests in pending.
+         */
+        long pendingBytes;
+
+        Connection(SocketChannel channel) {
+
+            this.channel = channel;
+            header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+            pending = new ArrayDeque<Response>();
+        }
+
+        void close() {
+
+            key.cancel();
+            try {
+
+                channel.close();
+            } catch (IOException e) {
+
+                // Nothing more to do for a connection that is gone
+            }
+        }
+    }
+}
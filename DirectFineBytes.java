@@ -0,0 +1,321 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.IOException;
+import java.lang.IllegalStateException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Off-heap counterpart of FineBytes for writing bits.
+ * Bits are appended to a direct ByteBuffer which can be handed straight to a channel, so large
+ * encode buffers never live on the heap and are never copied on their way out.
+ * close() hands the buffer to a pool shared by every instance, and new instances take a 
+ * buffer from the pool when one is large enough, so repeated encodes reuse the same off-heap 
+ * memory instead of leaving it for the garbage collector to free. The pool holds at most 
+ * POOL_BYTES, buffers past that and buffers of instances never closed are only freed by 
+ * the garbage collector. The object cannot be used after close().
+ */
+public class DirectFineBytes implements AutoCloseable {
+
+    //~Constants-----------------------------------
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    /**
+     * The most bytes of closed buffers kept for reuse.
+     */
+    static final long POOL_BYTES = 1L << 24;
+
+    /**
+     * Buffers of closed instances, guarded by itself.
+     */
+    private static final Deque<ByteBuffer> POOL = new ArrayDeque<ByteBuffer>();
+    private static long pooledBytes;
+
+    /**
+     * The longest code that can be added in one call to addBits(long, int).
+     */
+    public static final int MAX_CODE_LENGTH = 56;
+
+    //~Fields--------------------------------------
+    /**
+     * The direct buffer holding the complete bytes, its position is the number of bytes held.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Bits that do not yet make up a complete byte, right aligned.
+     */
+    private long pendingBits;
+
+    /**
+     * The number of bits held in pendingBits, always less than 8 between calls.
+     */
+    private int pendingBitCount;
+
+    /**
+     * Set up a direct buffer with the DEFAULT_CAPACITY (64KB).
+     */
+    public DirectFineBytes() {
+
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Set up a direct buffer with the passed in capacity in bytes.
+     */
+    public DirectFineBytes(int capacity) {
+
+        buffer = takeBuffer(Math.max(capacity, 8));
+        pendingBits = 0;
+        pendingBitCount = 0;
+    }
+
+    /**
+     * Make sure there is room for numBytes more bytes, growing the buffer if needed.
+     */
+    private void ensureCapacity(int numBytes) {
+
+        checkOpen();
+        if (buffer.remaining() >= numBytes) {
+
+            return;
+        }
+
+        long needed = (long) buffer.position() + numBytes;
+        if (needed > MAX_CAPACITY) {
+
+            throw new IllegalStateException("DirectFineBytes cannot hold " + needed 
+                    + " bytes, drain it with writeTo first");
+        }
+
+        long newCapacity = Math.max(needed, Math.min((long) buffer.capacity() * 2, MAX_CAPACITY));
+        ByteBuffer newBuffer = takeBuffer((int) newCapacity);
+        buffer.flip();
+        newBuffer.put(buffer);
+        releaseBuffer(buffer);
+        buffer = newBuffer;
+    }
+
+    /**
+     * Take a cleared buffer of at least capacity bytes from the pool, or allocate one.
+     */
+    private static ByteBuffer takeBuffer(int capacity) {
+
+        synchronized (POOL) {
+
+            Iterator<ByteBuffer> pooled = POOL.iterator();
+            while (pooled.hasNext()) {
+
+                ByteBuffer buffer = pooled.next();
+                if (buffer.capacity() >= capacity) {
+
+                    pooled.remove();
+                    pooledBytes -= buffer.capacity();
+                    buffer.clear();
+                    return buffer;
+                }
+            }
+        }
+
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Give a buffer back to the pool if it has room, most recent first.
+     */
+    private static void releaseBuffer(ByteBuffer buffer) {
+
+        synchronized (POOL) {
+
+            if (pooledBytes + buffer.capacity() <= POOL_BYTES) {
+
+                POOL.addFirst(buffer);
+                pooledBytes += buffer.capacity();
+            }
+        }
+    }
+
+    /**
+     * Throw if close() has already been called.
+     */
+    private void checkOpen() {
+
+        if (buffer == null) {
+
+            throw new IllegalStateException("DirectFineBytes has been closed");
+        }
+    }
+
+    /**
+     * Add the low length bits of code to the end, most significant bit first.
+     *
+     * @param code the bits to add, right aligned.
+     * @param length the number of bits to add, at most MAX_CODE_LENGTH.
+     */
+    public void addBits(long code, int length) {
+
+        if (length > MAX_CODE_LENGTH) {
+
+            throw new IllegalArgumentException("Cannot add " + length + " bits at once");
+        }
+        ensureCapacity(8);
+
+        pendingBits = (pendingBits << length) | (code & ((1L << length) - 1));
+        pendingBitCount += length;
+        while (pendingBitCount >= 8) {
+
+            pendingBitCount -= 8;
+            buffer.put((byte) (pendingBits >>> pendingBitCount));
+        }
+    }
+
+    /**
+     * Add a string of bits to the end.
+     */
+    public void addBits(String binaryString) {
+
+        int end;
+        for (int i = 0; i < binaryString.length(); i = end) {
+
+            end = Math.min(i + MAX_CODE_LENGTH, binaryString.length());
+            addBits(Long.parseLong(binaryString.substring(i, end), 2), end - i);
+        }
+    }
+
+    /**
+     * Add an array of bytes to the end.
+     */
+    public void addBytes(byte[] newBytes) {
+
+        ensureCapacity(newBytes.length);
+        if (pendingBitCount == 0) {
+
+            buffer.put(newBytes);
+            return;
+        }
+
+        for (int i = 0; i < newBytes.length; i++) {
+
+            addBits(newBytes[i], 8);
+        }
+    }
+
+    /**
+     * Fill out the incomplete byte at the end with zeros.
+     *
+     * @return the number of padding bits added.
+     */
+    public int padToByte() {
+
+        int paddingBits = (8 - pendingBitCount) % 8;
+        addBits(0, paddingBits);
+        return paddingBits;
+    }
+
+    /**
+     * Check if there is a byte at the end which is not fully used.
+     */
+    public boolean hasIncompleteByte() {
+
+        return (pendingBitCount != 0);
+    }
+
+    /**
+     * Get the number of complete bytes in this object.
+     */
+    public int numBytes() {
+
+        checkOpen();
+        return buffer.position();
+    }
+
+    /**
+     * Get the total number of bits in this object.
+     */
+    public long numBits() {
+
+        return (numBytes() * 8L) + pendingBitCount;
+    }
+
+    /**
+     * Get a read only view of the complete bytes. 
+     * The view shares memory with this object and is only valid until it is next modified.
+     */
+    public ByteBuffer getBytes() {
+
+        checkOpen();
+        ByteBuffer view = buffer.duplicate();
+        view.flip();
+        return view.asReadOnlyBuffer();
+    }
+
+    /**
+     * Write all the complete bytes to channel and remove them from this object.
+     * Any incomplete byte is kept so more bits can be added to it.
+     *
+     * @param channel the channel to write to.
+     * @return the number of bytes written.
+     */
+    public int writeTo(WritableByteChannel channel) throws IOException {
+
+        checkOpen();
+        buffer.flip();
+        int written = buffer.remaining();
+        while (buffer.hasRemaining()) {
+
+            channel.write(buffer);
+        }
+        buffer.clear();
+        return written;
+    }
+
+    /**
+     * Clear out the bytes and bits in this object, keeping the buffer for reuse.
+     */
+    public void clear() {
+
+        checkOpen();
+        buffer.clear();
+        pendingBits = 0;
+        pendingBitCount = 0;
+    }
+
+    /**
+     * Give the direct buffer back to the pool. Any bits not yet written out are lost, and 
+     * views from getBytes must not be used afterwards.
+     */
+    @Override
+    public void close() {
+
+        if (buffer != null) {
+
+            releaseBuffer(buffer);
+        }
+        buffer = null;
+        pendingBits = 0;
+        pendingBitCount = 0;
+    }
+}
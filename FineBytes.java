@@ -20,11 +20,19 @@
 */
 
 import java.lang.IllegalStateException;
+import java.util.Arrays;
 
 /**
  * Class to support bit-level byte manipulation in an array of bytes.
  * This array of bytes can be accessed by a byte index and a bit index. 
+ * Nothing in the codecs uses it any more: they write bits through DirectFineBytes, whose 
+ * getBytes view and writeTo(WritableByteChannel) hand bytes on without copying them, and 
+ * read bits straight from the block's array through BitReader, so no path goes through 
+ * a String of bits.
+ *
+ * @deprecated write bits with DirectFineBytes and read them with BitReader.
  */
+@Deprecated
 public class FineBytes {
 
     //~Constants-----------------------------------
@@ -121,14 +129,7 @@ public class FineBytes {
      */
     private void resize() {
         byte[] newBytes = new byte[bytes.length * 2];
-        for (int i = 0; i < bytes.length; i++) {
-            
-            newBytes[i] = bytes[i];
-        }
-        for (int j = bytes.length; j < newBytes.length; j++) {
-            
-            newBytes[j] = 0x00;
-        }
+        System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
         bytes = newBytes;
     }
 
@@ -336,15 +337,8 @@ public class FineBytes {
      */
     public static byte parseBinaryString(String binaryString) {
 
-        //If we're going to overflow
-        if (binaryString.length() == 8 && binaryString.charAt(0) == '1') {
-
-            char[] binaryCharArray = binaryString.toCharArray();
-            binaryCharArray[0] = '0';
-            binaryString = "-" + new String(binaryCharArray);
-        }
-
-        return Byte.parseByte(binaryString, 2);
+        //Parse as an int so a leading 1 wraps into the sign bit
+        return (byte) Integer.parseInt(binaryString, 2);
     }
 
     /**
@@ -384,10 +378,7 @@ public class FineBytes {
     private byte[] copyBackingArray() {
 
         byte[] copy = new byte[bytes.length];
-        for (int i = 0; i < bytes.length; i++) {
-            
-            copy[i] = bytes[i];
-        }
+        System.arraycopy(bytes, 0, copy, 0, bytes.length);
 
         return copy;
     }
@@ -399,11 +390,7 @@ public class FineBytes {
     private byte[] copyBackingArray(int index) {
         
         byte[] copy = new byte[index + 1];
-
-        for (int i = 0; i < (index + 1); i++) {
-            
-            copy[i] = bytes[i];
-        }
+        System.arraycopy(bytes, 0, copy, 0, index + 1);
 
         return copy;   
     }
@@ -420,11 +407,7 @@ public class FineBytes {
     private byte[] copyBackingArray(int beginIndex, int endIndex) {
         
         byte[] copy = new byte[endIndex + 1];
-
-        for (int i = 0; i < (endIndex + 1); i++) {
-            
-            copy[i] = bytes[beginIndex + i];
-        }
+        System.arraycopy(bytes, beginIndex, copy, 0, endIndex + 1);
 
         return copy;   
     }
@@ -579,7 +562,7 @@ public class FineBytes {
      */
     public void clear() {
         
-        bytes = new byte[bytes.length];
+        Arrays.fill(bytes, 0, Math.min(byteIndex + 1, bytes.length), (byte) 0x00);
         bitIndex = 0;
         byteIndex = 0;
     }
@@ -0,0 +1,470 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The trailer index of an appendable compressed file, which holds any number of frames 
+ * one after another followed by this index. 
+ * Each append writes a new frame over the old index and a new index after it, so data 
+ * already in the file is never rewritten. A file without an index, as written by 
+ * compressFile or left by an append cut off before its index was written, is read by 
+ * walking the headers of its frames from the start, so every whole frame is kept and only 
+ * the unfinished one after them is lost. The next append writes over it.
+ *
+ * The index holds the offset and length of each frame as longs, then the number of 
+ * frames and the MAGIC number as ints, so it is found by reading the end of the file.
+ */
+public class FrameIndex {
+
+    //~Constants-----------------------------------
+    /**
+     * "HCI1", the last four bytes of a file with an index.
+     */
+    public static final int MAGIC = 0x48434931;
+    static final int ENTRY_SIZE = 16;
+    static final int FOOTER_SIZE = 8;
+
+    //~Fields--------------------------------------
+    private long[] offsets;
+    private long[] lengths;
+    private int frameCount;
+
+    /**
+     * Bytes after the last whole frame of a file without an index.
+     */
+    private long unusedBytes;
+
+    /**
+     * Set up an index of no frames.
+     */
+    public FrameIndex() {
+
+        offsets = new long[8];
+        lengths = new long[8];
+        frameCount = 0;
+    }
+
+    /**
+     * Read the index at the end of a file. Files without an index are walked frame by frame, 
+     * see walk.
+     * An index is only trusted if its frames run back to back from the start of the file 
+     * up to the index, so a frame that happens to end in the MAGIC number is not mistaken 
+     * for one.
+     *
+     * @param channel the file to read.
+     */
+    public static FrameIndex read(FileChannel channel) throws IOException {
+
+        long size = channel.size();
+        FrameIndex index = readTrailer(channel, size);
+        if (index == null) {
+
+            index = walk(channel, size);
+        }
+
+        return index;
+    }
+
+    /**
+     * Find the frames of a file without an index from their headers, stopping at the first 
+     * one that does not end within the file or whose counts do not add up. Encoders write 
+     * a frame's header last, so a frame cut off part way has a zero count and is never 
+     * taken for a whole one. If not even the first frame is whole, the whole file is taken 
+     * as one frame so its decoder reports what is wrong with it.
+     */
+    private static FrameIndex walk(FileChannel channel, long size) throws IOException {
+
+        FrameIndex index = new FrameIndex();
+        long offset = 0;
+        long length;
+        while (offset < size && (length = frameLength(channel, offset, size)) > 0) {
+
+            index.add(offset, length);
+            offset += length;
+        }
+        if (offset == 0 && size > 0) {
+
+            index.add(0, size);
+        } else {
+
+            index.unusedBytes = size - offset;
+        }
+
+        return index;
+    }
+
+    /**
+     * Get the length of the whole frame starting at offset from its headers.
+     *
+     * @return the length, or 0 if there is no whole frame there.
+     */
+    private static long frameLength(FileChannel channel, long offset, long size) 
+            throws IOException {
+
+        ByteBuffer header = readAt(channel, offset, 4, size);
+        if (header == null) {
+
+            return 0;
+        }
+        int magic = header.getInt(0);
+        if (magic == LZ77Encoder.MAGIC || magic == BWTEncoder.MAGIC) {
+
+            int headerSize = (magic == LZ77Encoder.MAGIC) 
+                    ? LZ77Encoder.HEADER_SIZE : BWTEncoder.HEADER_SIZE;
+            header = readAt(channel, offset, headerSize, size);
+            return (header == null) ? 0 : blocksEnd(channel, offset + headerSize, 
+                    header.getLong(8), header.getInt(16), size) - offset;
+        }
+
+        // Huffman frames, after the table if they carry one
+        long start = offset;
+        if (magic == HuffmanCompression.TABLE_FRAME_MAGIC) {
+
+            header = readAt(channel, offset, 8, size);
+            if (header == null || header.getInt(4) < 0 
+                    || header.getInt(4) > HuffmanCompression.MAX_TABLE_LENGTH) {
+
+                return 0;
+            }
+            start += 12 + header.getInt(4);
+        }
+        header = readAt(channel, start, HuffmanCompression.HEADER_SIZE, size);
+        return (header == null) ? 0 : blocksEnd(channel, start + HuffmanCompression.HEADER_SIZE, 
+                header.getLong(0), header.getInt(8), size) - offset;
+    }
+
+    /**
+     * Follow the block headers of a frame, each holding its count and then its length.
+     *
+     * @param position where the first block starts.
+     * @param count the count the frame's header gives, which the blocks' must add up to.
+     * @param blockCount the number of blocks.
+     * @return the position after the last block, or -1 if they are not whole.
+     */
+    private static long blocksEnd(FileChannel channel, long position, long count, 
+            int blockCount, long size) throws IOException {
+
+        if (count <= 0 || blockCount <= 0) {
+
+            return -1;
+        }
+        long blocksCount = 0;
+        ByteBuffer blockHeader;
+        for (int block = 0; block < blockCount; block++) {
+
+            blockHeader = readAt(channel, position, HuffmanCompression.BLOCK_HEADER_SIZE, size);
+            if (blockHeader == null || blockHeader.getInt(0) < 0 || blockHeader.getInt(4) < 0) {
+
+                return -1;
+            }
+            blocksCount += blockHeader.getInt(0);
+            position += HuffmanCompression.BLOCK_HEADER_SIZE + blockHeader.getInt(4);
+        }
+
+        return (blocksCount == count && position <= size) ? position : -1;
+    }
+
+    /**
+     * Read length bytes at position, or return null if they run past size.
+     */
+    private static ByteBuffer readAt(FileChannel channel, long position, int length, long size) 
+            throws IOException {
+
+        if (position + length > size) {
+
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, position);
+
+        return buffer;
+    }
+
+    /**
+     * Read and check the index ending at size, or return null if there is none.
+     */
+    private static FrameIndex readTrailer(FileChannel channel, long size) throws IOException {
+
+        if (size < FOOTER_SIZE) {
+
+            return null;
+        }
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        readFully(channel, footer, size - FOOTER_SIZE);
+        int count = footer.getInt(0);
+        if (footer.getInt(4) != MAGIC || count < 0 
+                || (long) count * ENTRY_SIZE > size - FOOTER_SIZE) {
+
+            return null;
+        }
+
+        long trailerStart = size - FOOTER_SIZE - (long) count * ENTRY_SIZE;
+        ByteBuffer entries = ByteBuffer.allocate(count * ENTRY_SIZE);
+        readFully(channel, entries, trailerStart);
+        FrameIndex index = new FrameIndex();
+        long expectedOffset = 0;
+        for (int i = 0; i < count; i++) {
+
+            long offset = entries.getLong(i * ENTRY_SIZE);
+            long length = entries.getLong(i * ENTRY_SIZE + 8);
+            if (offset != expectedOffset || length < 0) {
+
+                return null;
+            }
+            index.add(offset, length);
+            expectedOffset = offset + length;
+        }
+
+        return (expectedOffset == trailerStart) ? index : null;
+    }
+
+    /**
+     * Fill buffer from channel starting at position.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) 
+            throws IOException {
+
+        while (buffer.hasRemaining()) {
+
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+
+                throw new IOException("Unexpected end of file reading the frame index");
+            }
+        }
+    }
+
+    /**
+     * Add a frame to the end of the index.
+     *
+     * @param offset where the frame starts in the file.
+     * @param length the length of the frame in bytes.
+     */
+    public void add(long offset, long length) {
+
+        if (frameCount == offsets.length) {
+
+            offsets = Arrays.copyOf(offsets, frameCount * 2);
+            lengths = Arrays.copyOf(lengths, frameCount * 2);
+        }
+        offsets[frameCount] = offset;
+        lengths[frameCount] = length;
+        frameCount++;
+    }
+
+    /**
+     * Drop frames from the end of the index.
+     *
+     * @param count the number of frames to keep.
+     */
+    void truncate(int count) {
+
+        frameCount = Math.min(frameCount, count);
+    }
+
+    /**
+     * Write the index to a file at position and cut the file off after it.
+     *
+     * @param channel the file to write to.
+     * @param position where to write the index, normally dataEnd().
+     */
+    public void write(FileChannel channel, long position) throws IOException {
+
+        ByteBuffer trailer = ByteBuffer.allocate(frameCount * ENTRY_SIZE + FOOTER_SIZE);
+        for (int i = 0; i < frameCount; i++) {
+
+            trailer.putLong(offsets[i]);
+            trailer.putLong(lengths[i]);
+        }
+        trailer.putInt(frameCount);
+        trailer.putInt(MAGIC);
+        trailer.flip();
+
+        while (trailer.hasRemaining()) {
+
+            position += channel.write(trailer, position);
+        }
+        channel.truncate(position);
+    }
+
+    /**
+     * Get the number of frames in the file.
+     */
+    public int frameCount() {
+
+        return frameCount;
+    }
+
+    /**
+     * Get where a frame starts in the file.
+     */
+    public long frameOffset(int frame) {
+
+        return offsets[frame];
+    }
+
+    /**
+     * Get the length of a frame in bytes.
+     */
+    public long frameLength(int frame) {
+
+        return lengths[frame];
+    }
+
+    /**
+     * Get the number of bytes after the last whole frame of a file without an index, 
+     * left by an append that did not finish.
+     */
+    public long unusedBytes() {
+
+        return unusedBytes;
+    }
+
+    /**
+     * Get the position just past the last frame, where the next frame is appended.
+     */
+    public long dataEnd() {
+
+        return (frameCount == 0) ? 0 : offsets[frameCount - 1] + lengths[frameCount - 1];
+    }
+
+    /**
+     * Open a stream over one frame, which ends where the frame does.
+     *
+     * @param channel the file the index was read from.
+     * @param frame the frame to read.
+     * @param bufferSize the number of bytes to read from the file at a time.
+     */
+    public FrameInputStream openFrame(FileChannel channel, int frame, int bufferSize) {
+
+        return new FrameInputStream(channel, offsets[frame], lengths[frame], bufferSize);
+    }
+
+    /**
+     * A buffered stream over one frame, read with positional reads so the channel's 
+     * position is left alone.
+     */
+    public static class FrameInputStream extends InputStream {
+
+        //~Fields--------------------------------------
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final long start;
+        private long position;
+        private final long end;
+
+        /**
+         * Set up a stream over length bytes of a file from offset on.
+         */
+        FrameInputStream(FileChannel channel, long offset, long length, int bufferSize) {
+
+            this.channel = channel;
+            this.start = offset;
+            this.position = offset;
+            this.end = offset + length;
+            buffer = ByteBuffer.allocate(bufferSize);
+            buffer.limit(0);
+        }
+
+        /**
+         * Get the first four bytes of the frame as an int without reading them.
+         *
+         * @return the int, or 0 if the frame is shorter.
+         */
+        public int peekMagic() throws IOException {
+
+            if (end - start < 4) {
+
+                return 0;
+            }
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            readFully(channel, magic, start);
+
+            return magic.getInt(0);
+        }
+
+        /**
+         * Get the number of bytes of the frame not yet read.
+         */
+        public long remaining() {
+
+            return end - position + buffer.remaining();
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            if (!buffer.hasRemaining() && !fill()) {
+
+                return -1;
+            }
+
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+
+            if (length == 0) {
+
+                return 0;
+            }
+            if (!buffer.hasRemaining() && !fill()) {
+
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+
+            return count;
+        }
+
+        @Override
+        public int available() {
+
+            return buffer.remaining();
+        }
+
+        /**
+         * Read the next part of the frame into the buffer.
+         *
+         * @return false at the end of the frame.
+         */
+        private boolean fill() throws IOException {
+
+            if (position == end) {
+
+                return false;
+            }
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            readFully(channel, buffer, position);
+            position += buffer.limit();
+            buffer.flip();
+
+            return true;
+        }
+    }
+}
@@ -23,24 +23,43 @@ import java.util.Scanner;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Queue;
-import java.util.PriorityQueue;
 import java.util.LinkedList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
 
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.io.BufferedWriter;
 import java.io.FileOutputStream;
 import java.io.FileInputStream;
+import java.io.RandomAccessFile;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.nio.LongBuffer;
-import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
 
 /**
  * Perform HuffmanCompression on a text file.
+ * An instance holds settings and results of its last call so it should not be shared between 
+ * threads, share a HuffmanEncoder or HuffmanDecoder built from the encoding instead.
  */
 public class HuffmanCompression {
 
@@ -57,127 +76,851 @@ public class HuffmanCompression {
 
         HuffmanCompression hc = new HuffmanCompression();
 
-        if (args[0].equals("compress") && args.length == 2) {
+        // Options go after the file names, and only compress and append take them
+        boolean append = args[0].equals("append");
+        String option;
+        while ((append || args[0].equals("compress")) && args.length > (append ? 3 : 2)) {
+
+            option = args[args.length - 1];
+            if (option.equals("codepoints")) {
+
+                hc.setCodePointAlphabet(true);
+            } else if (option.equals("rle")) {
+
+                hc.setRunLength(true);
+            } else if (option.matches("lz77(:\\d+){0,2}")) {
+
+                String[] settings = option.split(":");
+                hc.setLZ77(
+                        (settings.length > 1) 
+                                ? Integer.parseInt(settings[1]) : LZ77Encoder.DEFAULT_LEVEL, 
+                        (settings.length > 2) 
+                                ? Integer.parseInt(settings[2]) : LZ77Encoder.DEFAULT_WINDOW_BITS);
+            } else if (option.matches("bwt(:\\d+){0,2}")) {
+
+                String[] settings = option.split(":");
+                hc.setBWT(
+                        (settings.length > 1) 
+                                ? Integer.parseInt(settings[1]) : BWTEncoder.DEFAULT_LEVEL, 
+                        (settings.length > 2) 
+                                ? Integer.parseInt(settings[2]) 
+                                : Runtime.getRuntime().availableProcessors());
+            } else {
+                break;
+            }
+            args = Arrays.copyOf(args, args.length - 1);
+        }
+
+        if (args[0].equals("compress") && (args.length == 2 || args.length == 3)) {
             
             System.out.println("Compressing: " + args[1]);
+            if (args.length == 3) {
+
+                hc.setSampleFraction(Double.parseDouble(args[2]));
+            }
             hc.compressFile(args[1]);
-        } else if (args[0].equals("decompress") && args.length == 3) {
+        } else if (args[0].equals("append") && (args.length == 3 || args.length == 4)) {
+
+            System.out.println("Appending: " + args[1] + " to " + args[2]);
+            if (args.length == 4) {
+
+                hc.setSampleFraction(Double.parseDouble(args[3]));
+            }
+            hc.appendFile(args[1], args[2]);
+        } else if (args[0].equals("snapshot") && (args.length == 1 || args.length == 2)) {
+
+            String encodingFileName = (args.length == 2) ? args[1] : ENCODING_FILE_NAME;
+            System.out.println("Writing snapshot: " + encodingFileName + SNAPSHOT_SUFFIX);
+            hc.writeSnapshot(encodingFileName);
+        } else if (args[0].equals("benchmark") && args.length <= 5) {
+
+            // Only the JSON goes to standard out, so it can be saved as a baseline
+            Map<String, byte[]> corpus = (args.length > 1 && new File(args[1]).isDirectory()) 
+                    ? Benchmark.loadCorpus(new File(args[1])) 
+                    : Benchmark.generateCorpus((args.length > 1) 
+                            ? Integer.parseInt(args[1]) : Benchmark.DEFAULT_CORPUS_SIZE);
+            Benchmark benchmark = new Benchmark(corpus);
+            benchmark.run();
+            System.out.print(benchmark.toJson());
+            if (args.length > 2) {
+
+                List<String> regressions = benchmark.compare(new File(args[2]), 
+                        (args.length > 3) 
+                                ? Double.parseDouble(args[3]) : Benchmark.DEFAULT_RATIO_TOLERANCE, 
+                        (args.length > 4) 
+                                ? Double.parseDouble(args[4]) : Benchmark.DEFAULT_SPEED_TOLERANCE);
+                for (String regression : regressions) {
+
+                    System.err.println("Regression: " + regression);
+                }
+                if (!regressions.isEmpty()) {
+
+                    System.exit(1);
+                }
+            }
+        } else if (args[0].equals("serve") && args.length <= 3) {
+
+            int port = (args.length > 1) ? Integer.parseInt(args[1]) 
+                    : CompressionServer.DEFAULT_PORT;
+            int workers = (args.length > 2) ? Integer.parseInt(args[2]) 
+                    : Runtime.getRuntime().availableProcessors();
+            CompressionServer server = new CompressionServer(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), port), workers, 
+                    CompressionServer.DEFAULT_MAX_MESSAGE_SIZE);
+            System.out.println("Serving on port " + server.getPort() + " with " + workers 
+                    + " workers");
+            server.run();
+        } else if (args[0].equals("decompress") && (args.length == 2 || args.length == 3)) {
             
             System.out.println("Decompressing: " + args[1]);
-            hc.decompressFile(args[1], args[2]);
+            hc.decompressFile(args[1], (args.length == 3) ? args[2] : ENCODING_FILE_NAME);
+        }
+    }
+
+    //~Constants------------------------------------------------------------------------------------
+    private static final String MAGIC_ENCODING_DELIMITER = ":::DELIMITOR-EXTRORDINAIRE!!!!:::";
+    private static final String MAGIC_LINE_ENDER = "::::::::::\n";
+    private static final String MAGIC_STRING_OF_COLONS = "::::::::::";
+    private static final String ENCODING_FILE_NAME = "encoding-file.txt";
+
+    /**
+     * Added to the name of an encoding file to name the snapshot of its decode table.
+     */
+    private static final String SNAPSHOT_SUFFIX = ".table";
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    private static final int SAMPLE_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Character whose code marks an escaped character, which follows as 16 raw bits.
+     * The ESCAPE_CHAR itself is always written escaped.
+     */
+    public static final char ESCAPE_CHAR = '\uFFFF';
+
+    /**
+     * Code point whose code marks an escaped code point, which follows as 21 raw bits.
+     * Used instead of ESCAPE_CHAR by encodings over code points, where both are always 
+     * written escaped.
+     */
+    public static final int ESCAPE_CODE_POINT = Character.MAX_CODE_POINT;
+
+    /**
+     * The first run symbol, used by encodings over code points and runs. RUN_SYMBOL + k 
+     * follows a symbol repeated n more times, where the top bit of n is bit k, and is 
+     * followed by the k bits of n below its top bit.
+     */
+    public static final int RUN_SYMBOL = Character.MAX_CODE_POINT + 1;
+
+    /**
+     * The number of run symbols.
+     */
+    static final int RUN_SYMBOL_COUNT = 24;
+
+    /**
+     * The fewest repeats worth a run symbol, shorter runs are coded symbol by symbol.
+     */
+    static final int MIN_RUN = 8;
+
+    /**
+     * The most repeats one run symbol can stand for.
+     */
+    static final int MAX_RUN = (1 << RUN_SYMBOL_COUNT) - 1;
+
+    /**
+     * Size of the frame header, the symbol count as a long and the block count as an int.
+     */
+    static final int HEADER_SIZE = 12;
+
+    /**
+     * Size of a block header, the symbol count, length, padding bits and CRC32C as ints.
+     */
+    static final int BLOCK_HEADER_SIZE = 16;
+
+    /**
+     * Size at which the encoder closes a block.
+     */
+    static final int BLOCK_SIZE = 1 << 16;
+
+    /**
+     * "HCT1", the start of a Huffman frame that carries its own code, as appendFile writes. 
+     * It is followed by the table's length as an int, the table as written by writeTable, 
+     * the table's CRC32C and then a Huffman frame coded with it. Other Huffman frames start 
+     * with their symbol count, whose high four bytes are never this.
+     */
+    public static final int TABLE_FRAME_MAGIC = 0x48435431;
+
+    /**
+     * The longest table writeTable can write: every symbol with the longest code.
+     */
+    static final int MAX_TABLE_LENGTH = 4 + ((RUN_SYMBOL + RUN_SYMBOL_COUNT) * 13);
+
+    /**
+     * The most bytes an encoded block holds. The encoder checks for BLOCK_SIZE after each 
+     * symbol, so a block ends at most one escaped symbol and its run past it, well within 
+     * the slack. Decoders reject longer blocks before allocating for them.
+     */
+    static final int MAX_BLOCK_LENGTH = BLOCK_SIZE + 64;
+
+    //~Fields---------------------------------------------------------------------------------------
+    /**
+     * The number of bits the decoder looks up at a time.
+     */
+    private int lookupBits = HuffmanDecodeTable.DEFAULT_LOOKUP_BITS;
+
+    /**
+     * The most symbols the decoder may emit per lookup.
+     */
+    private int symbolsPerLookup = 1;
+
+    /**
+     * The fraction of the file compressFile samples to build its encoding, 1 reads it all.
+     */
+    private double sampleFraction = 1;
+
+    /**
+     * Whether compressFile encodes whole code points rather than chars.
+     */
+    private boolean codePointAlphabet;
+
+    /**
+     * Whether compressFile codes runs of a code point as run symbols.
+     */
+    private boolean runLength;
+
+    /**
+     * The LZ77 level compressFile runs before Huffman coding, 0 for none.
+     */
+    private int lz77Level;
+
+    /**
+     * The log2 of the LZ77 window.
+     */
+    private int lz77WindowBits = LZ77Encoder.DEFAULT_WINDOW_BITS;
+
+    /**
+     * The block sorting level compressFile uses, 0 for none.
+     */
+    private int bwtLevel;
+
+    /**
+     * The number of threads block sorted frames are encoded and decoded with.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Whether readCompressed checks each block against its checksum.
+     */
+    private boolean verifyChecksums = true;
+
+    /**
+     * How much larger the last writeCompressed output was than an encoding built from exact
+     * character counts would have made it, as a fraction.
+     */
+    private double ratioLoss;
+
+    /**
+     * Set up how the decoder's lookup table is built. 
+     * Decoding two or three symbols per lookup with 11 or 12 lookup bits pays off on inputs 
+     * whose codes are only a few bits long.
+     *
+     * @param lookupBits the number of bits the decoder looks up at a time.
+     * @param symbolsPerLookup the most symbols the decoder may emit per lookup, 1 to 3.
+     */
+    public void setDecodeTable(int lookupBits, int symbolsPerLookup) {
+
+        this.lookupBits = lookupBits;
+        this.symbolsPerLookup = symbolsPerLookup;
+    }
+
+    /**
+     * Set whether readCompressed checks each block against its checksum before decoding it.
+     * Skipping the check saves a pass over each block for data that is trusted.
+     *
+     * @param verifyChecksums false to skip the check.
+     */
+    public void setVerifyChecksums(boolean verifyChecksums) {
+
+        this.verifyChecksums = verifyChecksums;
+    }
+
+    /**
+     * Set the fraction of the file compressFile samples to build its encoding.
+     * Sampling skips the full pass over the file at the cost of some compression ratio, 
+     * which is reported by getRatioLoss.
+     *
+     * @param sampleFraction the fraction to sample, above 0. 1 reads the whole file.
+     */
+    public void setSampleFraction(double sampleFraction) {
+
+        this.sampleFraction = sampleFraction;
+    }
+
+    /**
+     * Set whether compressFile builds its encoding over whole code points rather than chars.
+     * Supplementary characters then get one code each instead of one per surrogate half, 
+     * which pays off on multilingual text with large alphabets.
+     *
+     * @param codePointAlphabet true to encode code points.
+     */
+    public void setCodePointAlphabet(boolean codePointAlphabet) {
+
+        this.codePointAlphabet = codePointAlphabet;
+    }
+
+    /**
+     * Set whether compressFile codes runs of a repeated character as the character followed 
+     * by a run symbol for the number of repeats, in the same code as the characters. 
+     * This pays off on inputs with long runs such as padded records, and speeds encoding 
+     * up since fewer codes are written. It implies the code point alphabet.
+     *
+     * @param runLength true to code runs.
+     */
+    public void setRunLength(boolean runLength) {
+
+        this.runLength = runLength;
+    }
+
+    /**
+     * Set compressFile to find repeats with LZ77 before Huffman coding, which pays off on 
+     * inputs full of repetition such as logs. The file is then compressed as bytes with 
+     * codes built per block and stored in the compressed file, so the encoding file, 
+     * sampling and the code point alphabet are not used.
+     *
+     * @param level 0 for no LZ77, or LZ77Encoder.MIN_LEVEL (fastest) to 
+     *          LZ77Encoder.MAX_LEVEL (smallest).
+     * @param windowBits the log2 of the farthest a match may reach back.
+     */
+    public void setLZ77(int level, int windowBits) {
+
+        this.lz77Level = level;
+        this.lz77WindowBits = windowBits;
+    }
+
+    /**
+     * Set compressFile to block sort the file with the Burrows-Wheeler transform before 
+     * Huffman coding, for the best ratio on text at the cost of speed. Like LZ77 the file 
+     * is compressed as bytes with codes stored in the compressed file. 
+     * Blocks are encoded and decoded on several threads.
+     *
+     * @param level 0 for no block sorting, or BWTEncoder.MIN_LEVEL to BWTEncoder.MAX_LEVEL, 
+     *          the block size in hundreds of kilobytes.
+     * @param threads the number of threads to encode and decode blocks with.
+     */
+    public void setBWT(int level, int threads) {
+
+        this.bwtLevel = level;
+        this.threads = threads;
+    }
+
+    /**
+     * Get how much larger the last writeCompressed output was than an encoding built from 
+     * exact character counts would have made it, as a fraction.
+     */
+    public double getRatioLoss() {
+
+        return ratioLoss;
+    }
+
+    /**
+     * Compress the file corresponding to the passed name.
+     *
+     * @param fileName the name of the file to compress.
+     */
+    public void compressFile(String fileName) throws FileNotFoundException, IOException {
+
+        File file = new File(fileName);
+        File compressedFile = new File(fileName + "--compressed");
+        if (bwtLevel > 0) {
+
+            writeBWTCompressed(file, compressedFile);
+        } else if (lz77Level > 0) {
+
+            writeLZ77Compressed(file, compressedFile);
+        } else if (runLength) {
+
+            writeRunLengthCompressed(file, compressedFile, 
+                    runLengthEncoding(file, sampleFraction));
+        } else if (codePointAlphabet) {
+
+            writeCodePointCompressed(file, compressedFile, 
+                    codePointEncoding(file, sampleFraction));
+        } else {
+
+            writeCompressed(file, compressedFile, huffmanEncoding(file, sampleFraction));
+        }
+        if (sampleFraction < 1) {
+
+            System.out.printf("Sampled encoding ratio loss: %.3f%%%n", ratioLoss * 100);
+        }
+        readCompressed(fileName + "--compressed", ENCODING_FILE_NAME);
+    }
+
+    /**
+     * Write the compressed file, and the encoding to ENCODING_FILE_NAME.
+     * The file holds one frame written by a HuffmanEncoder, see there for the layout.
+     *
+     * @param fileName the file to compress.
+     * @param compressedFile the file to write the compressed file data to.
+     * @param encoding a Mapping from characters to strings indicating the Huffman encoding to use.
+     */
+    public void writeCompressed(File file, File compressedFile, Map<Character, String> encoding) 
+            throws FileNotFoundException, IOException {
+
+        Map<Integer, String> symbolEncoding = new HashMap<Integer, String>();
+        for (Map.Entry<Character, String> entry : encoding.entrySet()) {
+
+            symbolEncoding.put((int) entry.getKey().charValue(), entry.getValue());
+        }
+        writeCompressed(file, compressedFile, new HuffmanEncoder(encoding), symbolEncoding, 
+                Character.MAX_VALUE + 1);
+    }
+
+    /**
+     * Write the compressed file, and the encoding to ENCODING_FILE_NAME, 
+     * encoding whole code points.
+     *
+     * @param fileName the file to compress.
+     * @param compressedFile the file to write the compressed file data to.
+     * @param encoding a Mapping from code points to strings indicating the encoding to use.
+     */
+    public void writeCodePointCompressed(File file, File compressedFile, 
+            Map<Integer, String> encoding) throws FileNotFoundException, IOException {
+
+        writeCompressed(file, compressedFile, HuffmanEncoder.forCodePoints(encoding), encoding, 
+                Character.MAX_CODE_POINT + 1);
+    }
+
+    /**
+     * Write the compressed file, and the encoding to ENCODING_FILE_NAME, 
+     * encoding code points and runs of them.
+     *
+     * @param fileName the file to compress.
+     * @param compressedFile the file to write the compressed file data to.
+     * @param encoding a Mapping from code points and run symbols to strings indicating 
+     *          the encoding to use.
+     */
+    public void writeRunLengthCompressed(File file, File compressedFile, 
+            Map<Integer, String> encoding) throws FileNotFoundException, IOException {
+
+        writeCompressed(file, compressedFile, HuffmanEncoder.forRunLengths(encoding), encoding, 
+                RUN_SYMBOL + RUN_SYMBOL_COUNT);
+    }
+
+    /**
+     * Write the compressed file with an encoder, and its encoding to ENCODING_FILE_NAME.
+     *
+     * @param alphabetSize one past the largest symbol the encoder can count.
+     */
+    private void writeCompressed(File file, File compressedFile, HuffmanEncoder encoder, 
+            Map<Integer, String> encoding, int alphabetSize) 
+            throws FileNotFoundException, IOException {
+
+        System.out.println("writeCompressed");
+
+        long[] counts = new long[alphabetSize];
+        long bitCount;
+        Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)), 
+                READ_BUFFER_SIZE);
+        FileOutputStream os = new FileOutputStream(compressedFile);
+        try {
+
+            bitCount = encoder.encode(reader, os.getChannel(), counts);
+        } finally {
+
+            reader.close();
+            os.close();
+        }
+
+        // Compare against the encoding the exact counts would have given
+        long optimalBitCount = 0;
+        Map<Integer, String> optimalEncoding = codePointEncoding(counts);
+        for (Map.Entry<Integer, String> entry : optimalEncoding.entrySet()) {
+
+            optimalBitCount += counts[entry.getKey()] * entry.getValue().length();
+        }
+        ratioLoss = (optimalBitCount == 0) ? 0 : ((double) bitCount / optimalBitCount) - 1;
+
+        writeEncodingFile(encoding, new File(ENCODING_FILE_NAME));
+    }
+
+    /**
+     * Compress a file onto the end of an existing compressed file as a new frame, then 
+     * rewrite the index at the end of the file. Nothing already in the file is rewritten, 
+     * so rotated logs can be added to an archive without recompressing it.
+     * The frame is compressed with the same settings compressFile would use. Every frame 
+     * carries its own code, so appended frames decode without an encoding file: LZ77 and 
+     * block sorted frames always do, and Huffman coded frames start with their table, see 
+     * TABLE_FRAME_MAGIC. Their encoding is built from the new file with an escape code, so 
+     * sampling still codes every character. If the frame cannot be written the file is 
+     * left as it was.
+     *
+     * @param fileName the name of the file to add.
+     * @param compressedFileName the compressed file to add to, created if it does not exist.
+     */
+    public void appendFile(String fileName, String compressedFileName) 
+            throws FileNotFoundException, IOException {
+
+        File file = new File(fileName);
+        Map<Integer, String> encoding = null;
+        if (bwtLevel == 0 && lz77Level == 0) {
+
+            encoding = appendableEncoding(file);
+        }
+
+        RandomAccessFile compressed = new RandomAccessFile(compressedFileName, "rw");
+        try {
+
+            FileChannel channel = compressed.getChannel();
+            long originalSize = channel.size();
+            FrameIndex index = FrameIndex.read(channel);
+            int frameCount = index.frameCount();
+            long frameStart = index.dataEnd();
+            channel.position(frameStart);
+            boolean appended = false;
+            try {
+
+                writeFrame(file, encoding, channel);
+                index.add(frameStart, channel.position() - frameStart);
+                index.write(channel, index.dataEnd());
+                appended = true;
+            } finally {
+
+                // Put the old index back over whatever part of the frame was written
+                if (!appended && frameStart == originalSize) {
+
+                    channel.truncate(originalSize);
+                } else if (!appended) {
+
+                    index.truncate(frameCount);
+                    index.write(channel, frameStart);
+                }
+            }
+        } finally {
+
+            compressed.close();
+        }
+    }
+
+    /**
+     * Write an encoding compactly, as carried by appended frames and by the compression 
+     * server: the number of symbols as an int, then each symbol as an int, the length of 
+     * its code as a byte and the code's bits packed into bytes from the high bit.
+     *
+     * @param encoding a Mapping from symbols to strings indicating the encoding.
+     */
+    public static byte[] writeTable(Map<Integer, String> encoding) {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+
+            out.writeInt(encoding.size());
+            for (Map.Entry<Integer, String> entry : encoding.entrySet()) {
+
+                String code = entry.getValue();
+                out.writeInt(entry.getKey());
+                out.writeByte(code.length());
+                byte[] packed = new byte[(code.length() + 7) / 8];
+                for (int i = 0; i < code.length(); i++) {
+
+                    if (code.charAt(i) == '1') {
+
+                        packed[i / 8] |= 0x80 >>> (i % 8);
+                    }
+                }
+                out.write(packed);
+            }
+        } catch (IOException e) {
+
+            // A ByteArrayOutputStream never throws
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read an encoding written by writeTable.
+     *
+     * @param table the written encoding.
+     * @return a Mapping from symbols to strings indicating the encoding.
+     */
+    public static Map<Integer, String> readTable(byte[] table) throws IOException {
+
+        ByteBuffer in = ByteBuffer.wrap(table);
+        Map<Integer, String> encoding = new HashMap<Integer, String>();
+        try {
+
+            int count = in.getInt();
+            if (count < 1 || count > in.remaining() / 5) {
+
+                throw new IOException("Invalid table size: " + count);
+            }
+            StringBuilder code = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+
+                int symbol = in.getInt();
+                int length = in.get() & 0xFF;
+                code.setLength(0);
+                int b = 0;
+                for (int bit = 0; bit < length; bit++) {
+
+                    if (bit % 8 == 0) {
+
+                        b = in.get();
+                    }
+                    code.append(((b << (bit % 8)) & 0x80) != 0 ? '1' : '0');
+                }
+                encoding.put(symbol, code.toString());
+            }
+        } catch (BufferUnderflowException e) {
+
+            throw new IOException("Table ends early");
+        }
+        if (in.hasRemaining()) {
+
+            throw new IOException("Table has " + in.remaining() + " bytes past its end");
+        }
+
+        return encoding;
+    }
+
+    /**
+     * Compress a file as one frame written at the channel's position, as a Huffman frame 
+     * carrying its table if there is an encoding or else with the block sorting or LZ77 
+     * settings.
+     */
+    private void writeFrame(File file, Map<Integer, String> encoding, FileChannel channel) 
+            throws FileNotFoundException, IOException {
+
+        if (encoding != null) {
+
+            HuffmanEncoder encoder = encoderFor(encoding);
+            byte[] table = writeTable(encoding);
+            CRC32C checksum = new CRC32C();
+            checksum.update(table);
+            ByteBuffer tableHeader = ByteBuffer.allocate(12 + table.length);
+            tableHeader.putInt(TABLE_FRAME_MAGIC);
+            tableHeader.putInt(table.length);
+            tableHeader.put(table);
+            tableHeader.putInt((int) checksum.getValue());
+            tableHeader.flip();
+            while (tableHeader.hasRemaining()) {
+
+                channel.write(tableHeader);
+            }
+
+            Reader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file)), READ_BUFFER_SIZE);
+            try {
+
+                encoder.encode(reader, channel, null);
+            } catch (IllegalArgumentException exception) {
+
+                throw new IOException("The encoding built for " + file 
+                        + " cannot code it, append it with lz77 or bwt instead", exception);
+            } finally {
+
+                reader.close();
+            }
+            return;
+        }
+
+        InputStream is = new FileInputStream(file);
+        try {
+
+            if (bwtLevel > 0) {
+
+                new BWTEncoder(bwtLevel, threads).encode(is, channel);
+            } else {
+
+                new LZ77Encoder(lz77Level, lz77WindowBits).encode(is, channel);
+            }
+        } finally {
+
+            is.close();
+        }
+    }
+
+    /**
+     * Build an encoding of a file for appendFile with the alphabet settings, always holding 
+     * an escape code so sampling cannot leave a character without a code.
+     */
+    private Map<Integer, String> appendableEncoding(File file) 
+            throws FileNotFoundException, IOException {
+
+        if (runLength || codePointAlphabet) {
+
+            long[] counts = codePointCounts(file, sampleFraction, runLength);
+            counts[ESCAPE_CODE_POINT]++;
+            return codePointEncoding(counts);
+        }
+
+        long[] counts = new long[Character.MAX_VALUE + 1];
+        if (sampleFraction >= 1) {
+
+            Reader reader = new InputStreamReader(new FileInputStream(file));
+            try {
+
+                countSymbols(reader, counts, false, false);
+            } finally {
+
+                reader.close();
+            }
+        } else {
+
+            sampleSymbols(file, sampleFraction, counts, false, false);
+        }
+        counts[ESCAPE_CHAR]++;
+        return codePointEncoding(counts);
+    }
+
+    /**
+     * Build an encoder for an encoding over chars, code points or runs depending on which 
+     * symbols it holds. Encodings with no symbol past Character.MAX_VALUE code the same 
+     * either way, so they are taken to be over chars.
+     *
+     * @param encoding a Mapping from symbols to strings indicating the encoding to use.
+     */
+    static HuffmanEncoder encoderFor(Map<Integer, String> encoding) {
+
+        int maxSymbol = 0;
+        for (Integer symbol : encoding.keySet()) {
+
+            maxSymbol = Math.max(maxSymbol, symbol);
+        }
+        if (maxSymbol >= RUN_SYMBOL) {
+
+            return HuffmanEncoder.forRunLengths(encoding);
         }
-    }
+        if (maxSymbol > Character.MAX_VALUE) {
 
-    //~Constants------------------------------------------------------------------------------------
-    private static final String MAGIC_ENCODING_DELIMITER = ":::DELIMITOR-EXTRORDINAIRE!!!!:::";
-    private static final String MAGIC_LINE_ENDER = "::::::::::\n";
-    private static final String MAGIC_STRING_OF_COLONS = "::::::::::";
-    private static final String MAGIC_EOF = "::::EOF";
+            return HuffmanEncoder.forCodePoints(encoding);
+        }
+
+        Map<Character, String> charEncoding = new HashMap<Character, String>();
+        for (Map.Entry<Integer, String> entry : encoding.entrySet()) {
+
+            charEncoding.put((char) entry.getKey().intValue(), entry.getValue());
+        }
+        return new HuffmanEncoder(charEncoding);
+    }
 
     /**
-     * Compress the file corresponding to the passed name.
+     * Write the compressed file as an LZ77 frame, which holds its own codes.
      *
-     * @param fileName the name of the file to compress.
+     * @param fileName the file to compress.
+     * @param compressedFile the file to write the compressed file data to.
      */
-    public void compressFile(String fileName) throws FileNotFoundException, IOException {
+    public void writeLZ77Compressed(File file, File compressedFile) 
+            throws FileNotFoundException, IOException {
 
-        File file = new File(fileName);
+        System.out.println("writeLZ77Compressed");
 
-        Map<Character, String> encoding = huffmanEncoding(file);
+        InputStream is = new FileInputStream(file);
+        FileOutputStream os = new FileOutputStream(compressedFile);
+        try {
 
-        File compressedFile = new File(fileName + "--compressed");
-        writeCompressed(file, compressedFile, encoding);
-        readCompressed(fileName + "--compressed", "encoding-file.txt");
+            new LZ77Encoder(lz77Level, lz77WindowBits).encode(is, os.getChannel());
+        } finally {
+
+            is.close();
+            os.close();
+        }
     }
 
     /**
-     * Write the compressed file.
+     * Write the compressed file as a block sorted frame, which holds its own codes.
      *
      * @param fileName the file to compress.
      * @param compressedFile the file to write the compressed file data to.
-     * @param encoding a Mapping from characters to strings indicating the Huffman encoding to use.
      */
-    public void writeCompressed(File file, File compressedFile, Map<Character, String> encoding) 
+    public void writeBWTCompressed(File file, File compressedFile) 
             throws FileNotFoundException, IOException {
 
-        System.out.println("writeCompressed");
+        System.out.println("writeBWTCompressed");
 
-        // Create encoding
-        String nextString;
-        char c;
-        String charEncoding;
-        OutputStream os = new FileOutputStream(compressedFile);
-        int bitCount = 0;
-        long byteCount;
-        Scanner countScan = new Scanner(file);
-        countScan.useDelimiter("");
-        while(countScan.hasNext()) {
-            
-            nextString = countScan.next();
-            c = nextString.charAt(0);
-            charEncoding = encoding.get(c);
-            bitCount += charEncoding.length();
-        }
-        countScan.close();
-        byteCount = bitCount / 8;
-        bitCount %= 8;
-
-        // Write using encoding
-        Scanner scan = new Scanner(file);   
-        scan.useDelimiter("");
-
-        int totalBytesWritten = 0;
-        FineBytes fineBytes = new FineBytes(150);
-        ByteBuffer numCharsBuf = ByteBuffer.allocate(12);
-        numCharsBuf.putLong(byteCount);
-        numCharsBuf.putInt(bitCount);
-        os.write(numCharsBuf.array());
-        while (scan.hasNext()) {
-
-            nextString = scan.next();
-            c = nextString.charAt(0);
-            charEncoding = encoding.get(c);
-            fineBytes.addBits(charEncoding);
-
-            // If we have 100 bytes and no incomplete bytes
-            if (fineBytes.numBytes() >= 100 && !fineBytes.hasIncompleteByte()) {
-
-                // WRITE!
-                os.write(fineBytes.getBytes());
-                totalBytesWritten += fineBytes.numBytes();
-                fineBytes.clear();
-            }
+        InputStream is = new FileInputStream(file);
+        FileOutputStream os = new FileOutputStream(compressedFile);
+        try {
+
+            new BWTEncoder(bwtLevel, threads).encode(is, os.getChannel());
+        } finally {
+
+            is.close();
+            os.close();
+        }
+    }
+
+    /**
+     * Write an encoding to a file to be retrieved later by readEncodingFile.
+     * Each symbol is written as its decimal code point, so lone surrogates, line breaks and 
+     * the escape symbols survive in any charset. A snapshot of the decode table is written 
+     * next to it, see writeSnapshot.
+     *
+     * @param encoding a Mapping from code points to strings indicating the Huffman encoding.
+     * @param encodingFile the file to write to.
+     */
+    public void writeEncodingFile(Map<Integer, String> encoding, File encodingFile) 
+            throws FileNotFoundException, IOException {
+
+        Writer encodingWriter = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(encodingFile)));
+        for (Integer symbol : encoding.keySet()) {
+
+            encodingWriter.write(Integer.toString(symbol));
+            encodingWriter.write(MAGIC_ENCODING_DELIMITER);
+            encodingWriter.write(encoding.get(symbol));
+            encodingWriter.write(MAGIC_LINE_ENDER);
         }
 
-        fineBytes.addBytes(MAGIC_EOF.getBytes());
-        os.write(fineBytes.getBytes());
-        totalBytesWritten += fineBytes.numBytes();
+        encodingWriter.close();
 
-        os.close();
-        scan.close();
+        Map<String, Integer> encodingMap = new HashMap<String, Integer>();
+        for (Map.Entry<Integer, String> entry : encoding.entrySet()) {
 
-        // Write Encoding to file to be retrieved later
-        File encodingFile = new File("encoding-file.txt");
-        os = new FileOutputStream(encodingFile);
-        for (Character myChar : encoding.keySet()) {
+            encodingMap.put(entry.getValue(), entry.getKey());
+        }
+        new HuffmanDecodeTable(encodingMap, lookupBits, symbolsPerLookup).writeSnapshot(
+                new File(encodingFile.getPath() + SNAPSHOT_SUFFIX), encodingFile);
+    }
 
-            if (myChar.charValue() == '\n') {
-                
-                os.write("\n".getBytes());
-            } else {
-                
-                os.write(myChar.charValue());
-            }
-            os.write(MAGIC_ENCODING_DELIMITER.getBytes());
-            os.write(encoding.get(myChar).getBytes());
-            os.write(MAGIC_LINE_ENDER.getBytes());
+    /**
+     * Write a snapshot of the decode table for an encoding file, built with the settings 
+     * from setDecodeTable, to the encoding file's name followed by SNAPSHOT_SUFFIX. 
+     * readCompressed loads the snapshot in one read instead of parsing the encoding file 
+     * and building the table, which is most of the time taken by short decompressions. 
+     * A snapshot is ignored once the encoding file changes.
+     *
+     * @param encodingFileName the name of the encoding file.
+     */
+    public void writeSnapshot(String encodingFileName) throws FileNotFoundException, IOException {
+
+        new HuffmanDecodeTable(readEncodingFile(encodingFileName), lookupBits, symbolsPerLookup)
+                .writeSnapshot(new File(encodingFileName + SNAPSHOT_SUFFIX), 
+                        new File(encodingFileName));
+    }
+
+    /**
+     * Load the decode table for an encoding file from its snapshot if there is a current one 
+     * built with the same settings, or else build it from the encoding file.
+     */
+    private HuffmanDecodeTable decodeTable(String encodingFileName) 
+            throws FileNotFoundException, IOException {
+
+        HuffmanDecodeTable table = HuffmanDecodeTable.readSnapshot(
+                new File(encodingFileName + SNAPSHOT_SUFFIX), new File(encodingFileName));
+        if (table != null && table.getLookupBits() == lookupBits 
+                && table.getSymbolsPerLookup() == symbolsPerLookup) {
+
+            return table;
         }
 
-        os.close();
+        return new HuffmanDecodeTable(readEncodingFile(encodingFileName), lookupBits, 
+                symbolsPerLookup);
     }
 
     /**
-     * Read from a compressed file.
+     * Read from a compressed file and print the decoded data.
      *
      * @param compressedFileName the name of the compressed file.
      * @param encodingFileName the name of the file holding the encoding 
@@ -187,122 +930,134 @@ public class HuffmanCompression {
             throws FileNotFoundException, IOException {
 
         System.out.println("readCompressed Method");
-        StringBuilder build = new StringBuilder();
+        System.out.println("Final Read Data: ");
+        readCompressed(compressedFileName, encodingFileName, System.out);
+        System.out.println();
+    }
 
-        // Read encoding file
-        Map<String, Character> encodingMap = readEncodingFile(encodingFileName);
-        int longestEncodingBits = 0;
-        int longestEncodingBytes = 0;
-        for (String enc : encodingMap.keySet()) {
-            
-            if (enc.length() > longestEncodingBits) {
-            
-                longestEncodingBits = enc.length();
-            }
-        }
-        longestEncodingBytes = (longestEncodingBits / 8) + 1;        
+    /**
+     * Read from a compressed file and write the decoded data to out.
+     * Exactly the number of symbols recorded in each block header are decoded, so the decoder 
+     * never has to look for the end of the data. Each block's checksum is checked before 
+     * the block is decoded unless turned off with setVerifyChecksums.
+     * LZ77, block sorted and table carrying Huffman frames are told apart by their magic 
+     * numbers and need no encoding file, other Huffman frames use the encoding file. 
+     * Files grown by appendFile are decoded frame by frame through their index. A file whose 
+     * index was lost to an append cut off part way still decodes every whole frame, see 
+     * FrameIndex.
+     *
+     * @param compressedFileName the name of the compressed file.
+     * @param encodingFileName the name of the file holding the encoding 
+     *          used on the compressed file.
+     * @param out the stream to write the decoded data to, it is flushed but not closed.
+     */
+    public void readCompressed(String compressedFileName, String encodingFileName, 
+            OutputStream out) throws FileNotFoundException, IOException {
 
         // Setup to read from the compressed file
-        File compressedFile = new File(compressedFileName);
-        InputStream is = new FileInputStream(compressedFile);
-
-        // Three buffers: 
-        // numBytesBytes: read the long numBytesBytes value from file
-        // numBitsBytes: read the int numBitsBytes from file
-        // bytes[]: read the data from the file in a buffer
-        byte[] numBytesBytes = new byte[8];
-        byte[] numBitsBytes = new byte[4];
-        byte[] bytes = new byte[(longestEncodingBytes * 8)];
-
-        // TODO: ALTER SOME CODE SO I CAN HANDLE THE CASE WHERE THE FILE IS VERY LARGE
-        //          Alternate reading/writing etc
-        //          Perhaps use Java8 streams?
-        FineBytes fineBytes = new FineBytes((int) compressedFile.length());
-        String bitString;
-        String curEncoding = null;
-        char decodedChar;
-        
-        // Variables to keep track of total bytes and bits in the file
-        long totalBytes;
-        int totalLeftoverBits;
-        long totalBytesRead = 0;
-        int totalLeftoverBitsRead = 0;
-
-        // Num bytes read per read call
-        int bytesRead;
-
-        // Read num bytes
-        bytesRead = is.read(numBytesBytes);
-        LongBuffer numBytesLongBuffer = ByteBuffer.wrap(numBytesBytes).asLongBuffer();
-        totalBytes = numBytesLongBuffer.get();
-        numBytesLongBuffer = null;
-
-        // Read num leftover bits
-        bytesRead = is.read(numBitsBytes);
-        IntBuffer numBitsIntBuffer = ByteBuffer.wrap(numBitsBytes).asIntBuffer();
-        totalLeftoverBits = numBitsIntBuffer.get();
-        numBitsIntBuffer = null;
-
-        // Indices within the binary string
-        int encodingStart = -1, prevEncodingEnd = -1, encodingEnd = -1;
-
-        // Read bytes and write them out to string
-        while ((bytesRead = is.read(bytes)) != -1) {
-
-            fineBytes.addBytes(bytes);
-            bitString = fineBytes.getBitString();
-
-            for (encodingStart = 0, encodingEnd = 1; 
-                    encodingEnd <= bitString.length(); 
-                    encodingEnd++) {
-
-                curEncoding = bitString.substring(encodingStart, encodingEnd);
-
-                if (encodingMap.containsKey(curEncoding)) {
-
-                    totalLeftoverBitsRead += curEncoding.length();
-                    totalBytesRead += (totalLeftoverBitsRead / 8);
-                    totalLeftoverBitsRead %= 8;
-
-                    decodedChar = encodingMap.get(curEncoding);
-
-                    if ((int) decodedChar != 13) {
-                        build.append(Character.toString(decodedChar));
+        FileInputStream fileStream = new FileInputStream(compressedFileName);
+        HuffmanDecoder decoder = null;
+        Writer writer = null;
+        try {
+
+            FileChannel channel = fileStream.getChannel();
+            FrameIndex index = FrameIndex.read(channel);
+            if (index.unusedBytes() > 0) {
+
+                System.err.println("Skipping " + index.unusedBytes() + " bytes after frame " 
+                        + index.frameCount() + " of " + compressedFileName 
+                        + ", left by an append that did not finish");
+            }
+            FrameIndex.FrameInputStream is;
+            int magic;
+            for (int frame = 0; frame < index.frameCount(); frame++) {
+
+                is = index.openFrame(channel, frame, READ_BUFFER_SIZE);
+                magic = is.peekMagic();
+                if (magic == LZ77Encoder.MAGIC) {
+
+                    new LZ77Decoder(verifyChecksums).decode(is, out);
+                } else if (magic == BWTEncoder.MAGIC) {
+
+                    new BWTDecoder(verifyChecksums, threads).decode(is, out);
+                } else {
+
+                    if (writer == null) {
+
+                        writer = new BufferedWriter(new OutputStreamWriter(out), READ_BUFFER_SIZE);
+                    }
+                    if (magic == TABLE_FRAME_MAGIC) {
+
+                        readFrameDecoder(is).decode(is, writer);
                     } else {
-                        build.append("\n");
+
+                        // Load the decode table the first time it is needed
+                        if (decoder == null) {
+
+                            decoder = new HuffmanDecoder(decodeTable(encodingFileName), 
+                                    verifyChecksums);
+                        }
+                        decoder.decode(is, writer);
                     }
+                    writer.flush();
+                }
 
-                    encodingStart = encodingEnd;
-                    prevEncodingEnd = encodingEnd;
-                    curEncoding = null;
-                    continue;
-                } else if (totalBytesRead == totalBytes 
-                        && totalLeftoverBitsRead == totalLeftoverBits) {
-                    is.close();
-                    System.out.println("Final Read Data (outside loop): ");
-                    System.out.println(build.toString());
-                    return;
+                if (is.remaining() != 0) {
+
+                    throw new IOException("Frame " + frame + " is followed by " + is.remaining() 
+                            + " bytes it does not use");
                 }
             }
+        } finally {
+
+            fileStream.close();
+            out.flush();
+        }
+    }
+
+    /**
+     * Read the table at the start of a table carrying Huffman frame and build a decoder 
+     * for the frame that follows it.
+     *
+     * @param in the frame, positioned at TABLE_FRAME_MAGIC.
+     */
+    private HuffmanDecoder readFrameDecoder(InputStream in) throws IOException {
 
-            int tempBitsIndex = (prevEncodingEnd == -1) ? 0 : prevEncodingEnd;
-            String tempBits = ((curEncoding != null) ? curEncoding : "");
-            fineBytes.clear();
-            fineBytes.addBits(tempBits);
+        DataInputStream is = new DataInputStream(in);
+        is.readInt();
+        int tableLength = is.readInt();
+        if (tableLength < 0 || tableLength > MAX_TABLE_LENGTH) {
+
+            throw new IOException("Invalid frame table length: " + tableLength);
+        }
+        byte[] table = new byte[tableLength];
+        is.readFully(table);
+        CRC32C checksum = new CRC32C();
+        checksum.update(table);
+        if ((int) checksum.getValue() != is.readInt()) {
+
+            throw new IOException("Checksum mismatch in frame table");
+        }
+
+        Map<String, Integer> encodingMap = new HashMap<String, Integer>();
+        for (Map.Entry<Integer, String> entry : readTable(table).entrySet()) {
+
+            encodingMap.put(entry.getValue(), entry.getKey());
         }
+        try {
 
-        is.close();
+            return new HuffmanDecoder(
+                    new HuffmanDecodeTable(encodingMap, lookupBits, symbolsPerLookup), 
+                    verifyChecksums);
+        } catch (IllegalArgumentException exception) {
 
-        System.out.println("Final Read Data (outside loop): ");
-        System.out.println(build.toString());
+            throw new IOException("Invalid frame table: " + exception.getMessage(), exception);
+        }
     }
 
     public void decompressFile(String fileName, String encodingFileName) 
             throws FileNotFoundException {
 
-        // Read encoding file
-        Map<String, Character> encodingMap = readEncodingFile(encodingFileName);
-
         // Read compressed file
         //         and
         // Write decompressed file
@@ -319,30 +1074,24 @@ public class HuffmanCompression {
      *
      * @param encodingFileName the name of the file holding the Huffman encoding information.
      */
-    private Map<String, Character> readEncodingFile(String encodingFileName) 
+    public Map<String, Integer> readEncodingFile(String encodingFileName) 
             throws FileNotFoundException {
 
         File encodingFile = new File(encodingFileName);
         Scanner scan = new Scanner(encodingFile);
         scan.useDelimiter(MAGIC_LINE_ENDER);
 
-        Map<String, Character> encodingMap = new HashMap<String, Character>();
+        Map<String, Integer> encodingMap = new HashMap<String, Integer>();
         String encodingLine;
-        Character myChar;
+        int symbol;
         String encoding;
         while(scan.hasNext()) {
 
             encodingLine = scan.next();
-
-            // This magical character is breaking things here.....it's like carbon monoxide....
-            if (encodingLine.indexOf(MAGIC_ENCODING_DELIMITER) == 0) {
-                continue;
-            }
-
-            myChar = encodingLine.split(MAGIC_ENCODING_DELIMITER)[0].charAt(0);
+            symbol = Integer.parseInt(encodingLine.split(MAGIC_ENCODING_DELIMITER)[0]);
             encoding = encodingLine.split(MAGIC_ENCODING_DELIMITER)[1];
             encoding = encoding.replace(MAGIC_STRING_OF_COLONS, "");
-            encodingMap.put(encoding, myChar);
+            encodingMap.put(encoding, symbol);
         }
         scan.close();
 
@@ -350,118 +1099,386 @@ public class HuffmanCompression {
     }
 
     /**
-     * Wrapper class to store data about characters read from file and 
-     * also has fields to construct a Huffman tree.
+     * Run the Huffman Encoding algorithm on the passed in file to find a short character encoding.
+     * 
+     * @param file the text file to run the Huffman encoding on.
      */
-    class HuffmanNode {
-        float freq;
-        Character c;
-        HuffmanNode left;
-        HuffmanNode right;
+    public Map<Character, String> huffmanEncoding(File file) 
+            throws FileNotFoundException, IOException {
+
+        long[] counts = new long[Character.MAX_VALUE + 1];
+        Reader reader = new InputStreamReader(new FileInputStream(file));
+        try {
+
+            countSymbols(reader, counts, false, false);
+        } finally {
+
+            reader.close();
+        }
+
+        return huffmanEncoding(counts);
     }
 
     /**
-     * Run the Huffman Encoding algorithm on the passed in file to find a short character encoding.
+     * Run the Huffman Encoding algorithm on character counts estimated from evenly spaced 
+     * chunks of the passed in file, so encoding can start without reading the whole file.
+     * The encoding includes the ESCAPE_CHAR, which writeCompressed uses for any character the 
+     * sample missed.
      * 
      * @param file the text file to run the Huffman encoding on.
+     * @param sampleFraction the fraction of the file to read, greater than 0. At 1 or more
+     *          the whole file is read.
      */
-    public Map<Character, String> huffmanEncoding(File file) throws FileNotFoundException {
+    public Map<Character, String> huffmanEncoding(File file, double sampleFraction) 
+            throws FileNotFoundException, IOException {
+
+        if (sampleFraction >= 1) {
 
-        // Read in characters and organize data
-        Map<Character, HuffmanNode> initialCharacterMap = new HashMap<Character, HuffmanNode>();
-        Scanner scan = new Scanner(file);
-        scan.useDelimiter("");
-        char c;
-        HuffmanNode node;
-        int numChars = 0;
-        while (scan.hasNext()) {
+            return huffmanEncoding(file);
+        }
 
-            c = scan.next().charAt(0);
-            numChars++;
+        long[] counts = new long[Character.MAX_VALUE + 1];
+        sampleSymbols(file, sampleFraction, counts, false, false);
 
-            if (initialCharacterMap.containsKey(c)) {
-                
-                node = initialCharacterMap.get(c);
-                node.freq++;
-            } else {
-                
-                node = new HuffmanNode();
-                node.freq = 1;
-                node.c = c;
-                node.left = null;
-                node.right = null;
-                initialCharacterMap.put(c, node);
+        // Characters the sample missed are escaped, the escape stays the rarest symbol
+        counts[ESCAPE_CHAR] = 1;
+
+        return huffmanEncoding(counts);
+    }
+
+    /**
+     * Run the Huffman Encoding algorithm on the code points of the passed in file.
+     * A surrogate pair counts as one code point, a lone surrogate as one of its own. 
+     * Occurrences of ESCAPE_CHAR are counted towards ESCAPE_CODE_POINT, which they are 
+     * written with.
+     * 
+     * @param file the text file to run the Huffman encoding on.
+     */
+    public Map<Integer, String> codePointEncoding(File file) 
+            throws FileNotFoundException, IOException {
+
+        return codePointEncoding(codePointCounts(file, 1, false));
+    }
+
+    /**
+     * Run the Huffman Encoding algorithm on code point counts estimated from evenly spaced 
+     * chunks of the passed in file. The encoding includes the ESCAPE_CODE_POINT, which 
+     * writeCodePointCompressed uses for any code point the sample missed.
+     * 
+     * @param file the text file to run the Huffman encoding on.
+     * @param sampleFraction the fraction of the file to read, greater than 0. At 1 or more
+     *          the whole file is read.
+     */
+    public Map<Integer, String> codePointEncoding(File file, double sampleFraction) 
+            throws FileNotFoundException, IOException {
+
+        return codePointEncoding(codePointCounts(file, sampleFraction, false));
+    }
+
+    /**
+     * Run the Huffman Encoding algorithm on the code points of the passed in file, with 
+     * runs of a repeated code point counted as the code point and a run symbol the way 
+     * writeRunLengthCompressed writes them.
+     * 
+     * @param file the text file to run the Huffman encoding on.
+     * @param sampleFraction the fraction of the file to read, greater than 0. At 1 or more
+     *          the whole file is read.
+     */
+    public Map<Integer, String> runLengthEncoding(File file, double sampleFraction) 
+            throws FileNotFoundException, IOException {
+
+        return codePointEncoding(codePointCounts(file, sampleFraction, true));
+    }
+
+    /**
+     * Count the code points of a file, or estimate them from a sample, counting 
+     * occurrences of ESCAPE_CHAR towards ESCAPE_CODE_POINT.
+     *
+     * @param runs true to count runs as run symbols.
+     */
+    private long[] codePointCounts(File file, double sampleFraction, boolean runs) 
+            throws FileNotFoundException, IOException {
+
+        long[] counts = new long[runs ? RUN_SYMBOL + RUN_SYMBOL_COUNT : RUN_SYMBOL];
+        if (sampleFraction >= 1) {
+
+            Reader reader = new InputStreamReader(new FileInputStream(file));
+            try {
+
+                countSymbols(reader, counts, true, runs);
+            } finally {
+
+                reader.close();
             }
+        } else {
+
+            sampleSymbols(file, sampleFraction, counts, true, runs);
+            counts[ESCAPE_CODE_POINT]++;
         }
+        counts[ESCAPE_CODE_POINT] += counts[ESCAPE_CHAR];
+        counts[ESCAPE_CHAR] = 0;
 
-        // Find the Huffman encoding---------------------------------
-        // Define PriorityQueue w/Comparator
-        PriorityQueue<HuffmanNode> q = new PriorityQueue<HuffmanNode>(initialCharacterMap.size(), 
-            new Comparator<HuffmanNode>() {
-                public int compare(HuffmanNode n1, HuffmanNode n2) {
+        return counts;
+    }
 
-                    if (n1.freq < n2.freq) {
-                        return -1;
-                    } else if (n1.freq > n2.freq) {  
-                        return 1;
-                    } else {
-                        return 0;
+    /**
+     * Count the symbols of text the way the encodings of a file are counted, for building 
+     * encodings of text held in memory with huffmanEncoding(long[]) or 
+     * codePointEncoding(long[]).
+     *
+     * @param text the text to count.
+     * @param codePoints true to count code points, with ESCAPE_CHAR counted towards 
+     *          ESCAPE_CODE_POINT, rather than chars.
+     * @param runs true to count runs as run symbols, which implies code points.
+     */
+    public long[] symbolCounts(String text, boolean codePoints, boolean runs) 
+            throws IOException {
+
+        codePoints |= runs;
+        long[] counts = new long[runs ? RUN_SYMBOL + RUN_SYMBOL_COUNT 
+                : codePoints ? RUN_SYMBOL : Character.MAX_VALUE + 1];
+        countSymbols(new StringReader(text), counts, codePoints, runs);
+        if (codePoints) {
+
+            counts[ESCAPE_CODE_POINT] += counts[ESCAPE_CHAR];
+            counts[ESCAPE_CHAR] = 0;
+        }
+
+        return counts;
+    }
+
+    /**
+     * Count each char, or each code point, read from a Reader.
+     *
+     * @param counts the counts to add to, indexed by symbol.
+     * @param codePoints true to count surrogate pairs as one code point.
+     * @param runs true to count runs of a code point as the code point and a run symbol.
+     */
+    private void countSymbols(Reader reader, long[] counts, boolean codePoints, boolean runs) 
+            throws IOException {
+
+        char[] chars = new char[READ_BUFFER_SIZE];
+        int charsRead;
+        int pendingHigh = -1;
+        CodePointCounter counter = new CodePointCounter(counts, runs);
+        while ((charsRead = reader.read(chars)) != -1) {
+
+            if (!codePoints) {
+
+                for (int i = 0; i < charsRead; i++) {
+
+                    counts[chars[i]]++;
+                }
+                continue;
+            }
+
+            // A high surrogate at the end of one read pairs with a low one starting the next
+            for (int i = 0; i < charsRead; i++) {
+
+                if (pendingHigh != -1) {
+
+                    if (Character.isLowSurrogate(chars[i])) {
+
+                        counter.add(Character.toCodePoint((char) pendingHigh, chars[i]));
+                        pendingHigh = -1;
+                        continue;
                     }
+                    counter.add(pendingHigh);
+                    pendingHigh = -1;
                 }
-        });
 
-        // Divide the counts in each node by the total number of characters
-        // and add nodes to the priority queue to prep for Huffman tree algorithm
-        for (HuffmanNode hn : initialCharacterMap.values()) {
+                if (Character.isHighSurrogate(chars[i])) {
+
+                    pendingHigh = chars[i];
+                } else {
+
+                    counter.add(chars[i]);
+                }
+            }
+        }
+
+        if (pendingHigh != -1) {
+
+            counter.add(pendingHigh);
+        }
+        counter.finish();
+    }
+
+    /**
+     * Counts code points one at a time, holding back repeats when counting runs so they 
+     * are counted the way HuffmanEncoder.forRunLengths codes them.
+     */
+    static class CodePointCounter {
+        long[] counts;
+        boolean runs;
+        int runSymbol = -1;
+        int runRepeats;
+
+        CodePointCounter(long[] counts, boolean runs) {
 
-            hn.freq /= numChars;
-            q.add(hn);
+            this.counts = counts;
+            this.runs = runs;
         }
 
-        // Construct Huffman tree
-        HuffmanNode innerNode;
-        HuffmanNode left;
-        HuffmanNode right;
-        for (int i = 0; i < (initialCharacterMap.size() - 1); i++) {
+        void add(int codePoint) {
 
-            innerNode = new HuffmanNode();
-            left = q.poll();
-            right = q.poll();
-            innerNode.left = left;
-            innerNode.right = right;
-            innerNode.freq = left.freq + right.freq;
-            innerNode.c = null;
-            q.add(innerNode);
+            if (!runs) {
+
+                counts[codePoint]++;
+            } else if (codePoint == runSymbol && runRepeats < MAX_RUN) {
+
+                runRepeats++;
+            } else {
+
+                finish();
+                runSymbol = codePoint;
+                runRepeats = 0;
+            }
+        }
+
+        /**
+         * Count the run being held back, if any.
+         */
+        void finish() {
+
+            if (runSymbol == -1) {
+                return;
+            }
+            if (runRepeats >= MIN_RUN) {
+
+                counts[runSymbol]++;
+                counts[RUN_SYMBOL + 31 - Integer.numberOfLeadingZeros(runRepeats)]++;
+            } else {
+
+                counts[runSymbol] += runRepeats + 1;
+            }
+            runSymbol = -1;
+        }
+    }
+
+    /**
+     * Count each char, or each code point, in evenly spaced chunks of a file.
+     *
+     * @param sampleFraction the fraction of the file to read, greater than 0.
+     * @param counts the counts to add to, indexed by symbol.
+     * @param codePoints true to count surrogate pairs as one code point.
+     * @param runs true to count runs of a code point as the code point and a run symbol.
+     */
+    private void sampleSymbols(File file, double sampleFraction, long[] counts, 
+            boolean codePoints, boolean runs) throws FileNotFoundException, IOException {
+
+        if (!(sampleFraction > 0)) {
+
+            throw new IllegalArgumentException("sampleFraction must be above 0: " 
+                    + sampleFraction);
+        }
+
+        long fileLength = file.length();
+        long numChunks = Math.max(1, 
+                (long) Math.ceil((fileLength * sampleFraction) / SAMPLE_CHUNK_SIZE));
+        long chunkSpacing = fileLength / numChunks;
+
+        byte[] chunk = new byte[SAMPLE_CHUNK_SIZE];
+        ByteBuffer chunkBuffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel();
+        String chunkString;
+        try {
+
+            for (long i = 0; i < numChunks; i++) {
+
+                // Chunk edges may split a multi-byte character, which only blurs the estimate
+                chunkBuffer = ByteBuffer.wrap(chunk);
+                long position = i * chunkSpacing;
+                int bytesRead;
+                do {
+
+                    bytesRead = channel.read(chunkBuffer, position + chunkBuffer.position());
+                } while (bytesRead > 0 && chunkBuffer.hasRemaining());
+                chunkString = new String(chunk, 0, chunkBuffer.position());
+                countSymbols(new StringReader(chunkString), counts, codePoints, runs);
+            }
+        } finally {
+
+            raf.close();
         }
+    }
+
+    /**
+     * Run the Huffman Encoding algorithm on counts of each character.
+     * 
+     * @param counts the number of times each character occurs, indexed by character.
+     */
+    public Map<Character, String> huffmanEncoding(long[] counts) {
 
-        // Retrieve the encoding as a mapping from characters to binary strings
-        HuffmanNode root = q.poll();
         Map<Character, String> encodingMap = new HashMap<Character, String>();
-        getEncodingFromHuffmanTree(root, encodingMap, "");
+        for (Map.Entry<Integer, String> entry : codePointEncoding(counts).entrySet()) {
+
+            encodingMap.put((char) entry.getKey().intValue(), entry.getValue());
+        }
 
         return encodingMap;
     }
 
-    /** 
-     * Use the Huffman Tree whose root node is passed in to recursively determine the encoding
-     * for each character.
+    /**
+     * Run the Huffman Encoding algorithm on counts of each code point. The code lengths come 
+     * from CanonicalCode.codeLengths, the same tree the LZ77 and block sorted codes are built 
+     * with, and the codes are then handed out canonically.
+     * 
+     * @param counts the number of times each code point occurs, indexed by code point.
+     */
+    public Map<Integer, String> codePointEncoding(long[] counts) {
+
+        return canonicalEncoding(CanonicalCode.codeLengths(counts));
+    }
+
+    /**
+     * Hand out canonical codes for code lengths, in order of length and then character, 
+     * so the code is fully described by its lengths and can be decoded with lookup tables.
      *
-     * @param root the root of the Huffman Tree.
-     * @param encodingMap a map to keep track of encodings.
-     * @param curEncoding the running encoding used to keep track of the encoding across recursive
-     *          calls.
+     * @param lengths the code length of each code point, 0 for code points without a code.
+     * @return a mapping from code points to canonical binary strings of those lengths.
      */
-    // TODO: Use StringBuffer instead.
-    private void getEncodingFromHuffmanTree(HuffmanNode root, Map<Character, String> encodingMap, 
-            String curEncoding) {
+    private Map<Integer, String> canonicalEncoding(final int[] lengths) {
 
-        if (root.c != null) {
-            
-            encodingMap.put(root.c, curEncoding);
-        } else {
-            
-            getEncodingFromHuffmanTree(root.left, encodingMap, curEncoding + "0");
-            getEncodingFromHuffmanTree(root.right, encodingMap, curEncoding + "1");
+        List<Integer> chars = new ArrayList<Integer>();
+        for (int c = 0; c < lengths.length; c++) {
+
+            if (lengths[c] != 0) {
+
+                chars.add(c);
+            }
+        }
+        Collections.sort(chars, new Comparator<Integer>() {
+            public int compare(Integer c1, Integer c2) {
+
+                int lengthDiff = lengths[c1] - lengths[c2];
+                return (lengthDiff != 0) ? lengthDiff : c1.compareTo(c2);
+            }
+        });
+
+        Map<Integer, String> canonicalMap = new HashMap<Integer, String>();
+        StringBuilder code = new StringBuilder();
+        int i;
+        for (Integer myChar : chars) {
+
+            while (code.length() < lengths[myChar]) {
+
+                code.append('0');
+            }
+            canonicalMap.put(myChar, code.toString());
+
+            // Add one to the code
+            for (i = code.length() - 1; i >= 0 && code.charAt(i) == '1'; i--) {
+
+                code.setCharAt(i, '0');
+            }
+            if (i >= 0) {
+
+                code.setCharAt(i, '1');
+            }
         }
+
+        return canonicalMap;
     }
 }
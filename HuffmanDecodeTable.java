@@ -0,0 +1,767 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Lookup table for decoding a canonical Huffman code.
+ * A table never changes once built, so it can be shared by any number of threads.
+ * Each entry is indexed by the next lookupBits bits of input and holds up to symbolsPerLookup 
+ * whole symbols along with the number of bits they take up, so short codes can be decoded 
+ * several at a time. Codes longer than lookupBits are looked up in a second level table 
+ * indexed by the bits after the first lookupBits, which keeps large alphabets fast. 
+ * Codes too long even for that fall back to canonical decoding bit by bit.
+ *
+ * A built table can be saved as a snapshot with writeSnapshot and loaded back with 
+ * readSnapshot in one read, skipping both parsing the encoding and building the table.
+ * A snapshot is the SNAPSHOT_MAGIC number, the table settings and array sizes, the size 
+ * and modification time of the file the table was built from, each array in turn and 
+ * a CRC32C of everything before it.
+ */
+public class HuffmanDecodeTable {
+
+    //~Constants-----------------------------------
+    public static final int DEFAULT_LOOKUP_BITS = 11;
+    public static final int MAX_SYMBOLS_PER_LOOKUP = 3;
+    private static final int MAX_CODE_LENGTH = 57;
+    private static final int MAX_SUBTABLE_BITS = 16;
+
+    /**
+     * "HDT1", the first four bytes of a snapshot.
+     */
+    public static final int SNAPSHOT_MAGIC = 0x48445431;
+    private static final int SNAPSHOT_HEADER_SIZE = 40;
+
+    /**
+     * Snapshots larger than this are memory mapped rather than read into a buffer.
+     */
+    private static final int SNAPSHOT_MAP_THRESHOLD = 1 << 20;
+
+    //~Fields--------------------------------------
+    private final int lookupBits;
+    private final int symbolsPerLookup;
+
+    /**
+     * The symbols in each entry, symbolsPerLookup slots per entry.
+     */
+    private final int[] entrySymbols;
+
+    /**
+     * The number of whole symbols in each entry, 0 when the first code is longer than lookupBits.
+     */
+    private final byte[] entryCounts;
+
+    /**
+     * The total number of bits taken up by the symbols in each entry.
+     */
+    private final byte[] entryBits;
+
+    /**
+     * The number of bits taken up by the first symbol in each entry.
+     */
+    private final byte[] entryFirstBits;
+
+    /**
+     * Where the second level table of each entry starts in subtableSymbols, -1 for none.
+     */
+    private final int[] subtableOffsets;
+
+    /**
+     * The number of bits indexing the second level table of each entry.
+     */
+    private final byte[] subtableBits;
+
+    /**
+     * The symbol in each second level entry.
+     */
+    private final int[] subtableSymbols;
+
+    /**
+     * The full code length of the symbol in each second level entry, 0 for none.
+     */
+    private final byte[] subtableLengths;
+
+    /**
+     * Symbols sorted by code length and then by value, the canonical code order.
+     */
+    private final int[] sortedSymbols;
+
+    /**
+     * The first canonical code of each length.
+     */
+    private final long[] firstCode;
+
+    /**
+     * The index in sortedSymbols of the first symbol of each length.
+     */
+    private final int[] firstIndex;
+
+    /**
+     * The number of symbols with each length.
+     */
+    private final int[] lengthCounts;
+
+    private final int maxLength;
+
+    /**
+     * Build a table decoding one symbol per lookup with DEFAULT_LOOKUP_BITS bits.
+     *
+     * @param encodingMap a canonical mapping from binary strings to the symbols they encode.
+     */
+    public HuffmanDecodeTable(Map<String, Integer> encodingMap) {
+
+        this(encodingMap, DEFAULT_LOOKUP_BITS, 1);
+    }
+
+    /**
+     * Build a table from the code lengths in a canonical encoding map.
+     *
+     * @param encodingMap a canonical mapping from binary strings to the symbols they encode.
+     * @param lookupBits the number of bits to index the table with.
+     * @param symbolsPerLookup the most symbols a single lookup may decode, 1 to 3.
+     */
+    public HuffmanDecodeTable(Map<String, Integer> encodingMap, int lookupBits, 
+            int symbolsPerLookup) {
+
+        if (lookupBits < 1 || lookupBits > 16) {
+
+            throw new IllegalArgumentException("lookupBits must be between 1 and 16: " 
+                    + lookupBits);
+        }
+        if (symbolsPerLookup < 1 || symbolsPerLookup > MAX_SYMBOLS_PER_LOOKUP) {
+
+            throw new IllegalArgumentException("symbolsPerLookup must be between 1 and " 
+                    + MAX_SYMBOLS_PER_LOOKUP + ": " + symbolsPerLookup);
+        }
+        this.lookupBits = lookupBits;
+        this.symbolsPerLookup = symbolsPerLookup;
+
+        // Sort the symbols into canonical order
+        List<Map.Entry<String, Integer>> entries = 
+                new ArrayList<Map.Entry<String, Integer>>(encodingMap.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            public int compare(Map.Entry<String, Integer> e1, Map.Entry<String, Integer> e2) {
+
+                if (e1.getKey().length() != e2.getKey().length()) {
+                    return e1.getKey().length() - e2.getKey().length();
+                }
+                return e1.getValue().compareTo(e2.getValue());
+            }
+        });
+
+        int longest = entries.isEmpty() ? 0 : entries.get(entries.size() - 1).getKey().length();
+        if (longest > MAX_CODE_LENGTH) {
+
+            throw new IllegalArgumentException("Codes longer than " + MAX_CODE_LENGTH 
+                    + " bits are not supported: " + longest);
+        }
+        maxLength = longest;
+
+        // Assign canonical codes and make sure they match the ones we were given
+        sortedSymbols = new int[entries.size()];
+        int[] lengths = new int[entries.size()];
+        long[] codes = new long[entries.size()];
+        firstCode = new long[maxLength + 1];
+        firstIndex = new int[maxLength + 1];
+        lengthCounts = new int[maxLength + 1];
+        long code = 0;
+        int prevLength = 0;
+        for (int i = 0; i < entries.size(); i++) {
+
+            int length = entries.get(i).getKey().length();
+            code <<= (length - prevLength);
+            if (lengthCounts[length] == 0) {
+
+                firstCode[length] = code;
+                firstIndex[length] = i;
+            }
+            if (length == 0 || code != Long.parseLong(entries.get(i).getKey(), 2)) {
+
+                throw new IllegalArgumentException("Encoding is not canonical at " 
+                        + entries.get(i).getKey());
+            }
+            sortedSymbols[i] = entries.get(i).getValue();
+            lengths[i] = length;
+            codes[i] = code;
+            lengthCounts[length]++;
+            prevLength = length;
+            code++;
+        }
+
+        // Fill in the lookup entries, later symbols in an entry overwrite narrower ranges.
+        // Escape codes and run symbols are left out so they always take the slow path.
+        int size = 1 << lookupBits;
+        entrySymbols = new int[size * symbolsPerLookup];
+        entryCounts = new byte[size];
+        entryBits = new byte[size];
+        entryFirstBits = new byte[size];
+        for (int i = 0; i < sortedSymbols.length && lengths[i] <= lookupBits; i++) {
+
+            if (needsRawBits(sortedSymbols[i])) {
+                continue;
+            }
+            int bits1 = lengths[i];
+            int base1 = (int) (codes[i] << (lookupBits - bits1));
+            fillEntries(base1, 1 << (lookupBits - bits1), 0, sortedSymbols[i], bits1, bits1);
+
+            for (int j = 0; symbolsPerLookup > 1 && j < sortedSymbols.length 
+                    && bits1 + lengths[j] <= lookupBits; j++) {
+
+                if (needsRawBits(sortedSymbols[j])) {
+                    continue;
+                }
+                int bits2 = bits1 + lengths[j];
+                int base2 = base1 | (int) (codes[j] << (lookupBits - bits2));
+                fillEntries(base2, 1 << (lookupBits - bits2), 1, sortedSymbols[j], bits2, bits1);
+
+                for (int k = 0; symbolsPerLookup > 2 && k < sortedSymbols.length 
+                        && bits2 + lengths[k] <= lookupBits; k++) {
+
+                    if (needsRawBits(sortedSymbols[k])) {
+                        continue;
+                    }
+                    int bits3 = bits2 + lengths[k];
+                    int base3 = base2 | (int) (codes[k] << (lookupBits - bits3));
+                    fillEntries(base3, 1 << (lookupBits - bits3), 2, sortedSymbols[k], 
+                            bits3, bits1);
+                }
+            }
+        }
+
+        // Size a second level table for each prefix of longer codes by its longest code
+        subtableOffsets = new int[size];
+        subtableBits = new byte[size];
+        for (int i = 0; i < size; i++) {
+
+            subtableOffsets[i] = -1;
+        }
+        for (int i = 0; i < sortedSymbols.length; i++) {
+
+            if (lengths[i] > lookupBits && lengths[i] - lookupBits <= MAX_SUBTABLE_BITS) {
+
+                int prefix = (int) (codes[i] >>> (lengths[i] - lookupBits));
+                subtableBits[prefix] = (byte) (lengths[i] - lookupBits);
+            }
+        }
+        int subtableSize = 0;
+        for (int i = 0; i < size; i++) {
+
+            if (subtableBits[i] != 0) {
+
+                subtableOffsets[i] = subtableSize;
+                subtableSize += 1 << subtableBits[i];
+            }
+        }
+
+        subtableSymbols = new int[subtableSize];
+        subtableLengths = new byte[subtableSize];
+        for (int i = 0; i < sortedSymbols.length; i++) {
+
+            int restBits = lengths[i] - lookupBits;
+            if (restBits <= 0 || restBits > MAX_SUBTABLE_BITS) {
+                continue;
+            }
+            int prefix = (int) (codes[i] >>> restBits);
+            int rest = (int) (codes[i] & ((1L << restBits) - 1));
+            int spanBits = subtableBits[prefix] - restBits;
+            int start = subtableOffsets[prefix] + (rest << spanBits);
+            for (int slot = start; slot < start + (1 << spanBits); slot++) {
+
+                subtableSymbols[slot] = sortedSymbols[i];
+                subtableLengths[slot] = (byte) lengths[i];
+            }
+        }
+    }
+
+    /**
+     * Build a table from a snapshot whose checksum has been checked.
+     */
+    private HuffmanDecodeTable(ByteBuffer snapshot, int symbolCount, int subtableSize) {
+
+        lookupBits = snapshot.getInt(4);
+        symbolsPerLookup = snapshot.getInt(8);
+        maxLength = snapshot.getInt(12);
+        snapshot.position(SNAPSHOT_HEADER_SIZE);
+
+        int size = 1 << lookupBits;
+        entrySymbols = new int[size * symbolsPerLookup];
+        entryCounts = new byte[size];
+        entryBits = new byte[size];
+        entryFirstBits = new byte[size];
+        subtableOffsets = new int[size];
+        subtableBits = new byte[size];
+        subtableSymbols = new int[subtableSize];
+        subtableLengths = new byte[subtableSize];
+        sortedSymbols = new int[symbolCount];
+        firstCode = new long[maxLength + 1];
+        firstIndex = new int[maxLength + 1];
+        lengthCounts = new int[maxLength + 1];
+
+        getInts(snapshot, entrySymbols);
+        snapshot.get(entryCounts);
+        snapshot.get(entryBits);
+        snapshot.get(entryFirstBits);
+        getInts(snapshot, subtableOffsets);
+        snapshot.get(subtableBits);
+        getInts(snapshot, subtableSymbols);
+        snapshot.get(subtableLengths);
+        getInts(snapshot, sortedSymbols);
+        snapshot.asLongBuffer().get(firstCode);
+        snapshot.position(snapshot.position() + (firstCode.length * 8));
+        getInts(snapshot, firstIndex);
+        getInts(snapshot, lengthCounts);
+    }
+
+    /**
+     * Bulk read ints from a buffer, moving its position past them.
+     */
+    private static void getInts(ByteBuffer buffer, int[] ints) {
+
+        buffer.asIntBuffer().get(ints);
+        buffer.position(buffer.position() + (ints.length * 4));
+    }
+
+    /**
+     * Bulk write ints to a buffer.
+     */
+    private static void putInts(ByteBuffer buffer, int[] ints) {
+
+        buffer.asIntBuffer().put(ints);
+        buffer.position(buffer.position() + (ints.length * 4));
+    }
+
+    /**
+     * Get the number of bytes in a snapshot of a table.
+     */
+    private static long snapshotSize(int lookupBits, int symbolsPerLookup, int maxLength, 
+            int symbolCount, int subtableSize) {
+
+        long size = 1L << lookupBits;
+        return SNAPSHOT_HEADER_SIZE + (size * symbolsPerLookup * 4) + (size * 3) 
+                + (size * 5) + (subtableSize * 5L) + (symbolCount * 4L) 
+                + ((maxLength + 1) * 16L) + 4;
+    }
+
+    /**
+     * Save this table as a snapshot which readSnapshot can load.
+     *
+     * @param file the file to write the snapshot to.
+     * @param source the file the table was built from, whose size and modification time are 
+     *          recorded so a snapshot older than it is not loaded.
+     */
+    public void writeSnapshot(File file, File source) throws IOException {
+
+        long size = snapshotSize(lookupBits, symbolsPerLookup, maxLength, 
+                sortedSymbols.length, subtableSymbols.length);
+        if (size > Integer.MAX_VALUE) {
+
+            throw new IOException("Table is too large for a snapshot: " + size + " bytes");
+        }
+
+        ByteBuffer snapshot = ByteBuffer.allocate((int) size);
+        snapshot.putInt(SNAPSHOT_MAGIC);
+        snapshot.putInt(lookupBits);
+        snapshot.putInt(symbolsPerLookup);
+        snapshot.putInt(maxLength);
+        snapshot.putInt(sortedSymbols.length);
+        snapshot.putInt(subtableSymbols.length);
+        snapshot.putLong(source.length());
+        snapshot.putLong(source.lastModified());
+        putInts(snapshot, entrySymbols);
+        snapshot.put(entryCounts);
+        snapshot.put(entryBits);
+        snapshot.put(entryFirstBits);
+        putInts(snapshot, subtableOffsets);
+        snapshot.put(subtableBits);
+        putInts(snapshot, subtableSymbols);
+        snapshot.put(subtableLengths);
+        putInts(snapshot, sortedSymbols);
+        snapshot.asLongBuffer().put(firstCode);
+        snapshot.position(snapshot.position() + (firstCode.length * 8));
+        putInts(snapshot, firstIndex);
+        putInts(snapshot, lengthCounts);
+
+        CRC32C checksum = new CRC32C();
+        checksum.update(snapshot.array(), 0, snapshot.position());
+        snapshot.putInt((int) checksum.getValue());
+        snapshot.flip();
+
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+
+            FileChannel channel = out.getChannel();
+            channel.truncate(0);
+            while (snapshot.hasRemaining()) {
+
+                channel.write(snapshot);
+            }
+        } finally {
+
+            out.close();
+        }
+    }
+
+    /**
+     * Load a table saved by writeSnapshot in one read, or by memory mapping it if it is 
+     * large.
+     *
+     * @param file the snapshot to load.
+     * @param source the file the table was built from.
+     * @return the table, or null if there is no snapshot, it does not match the size and 
+     *          modification time of source, or it fails its checks.
+     */
+    public static HuffmanDecodeTable readSnapshot(File file, File source) throws IOException {
+
+        if (!file.isFile()) {
+
+            return null;
+        }
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+
+            FileChannel channel = in.getChannel();
+            long fileSize = channel.size();
+            if (fileSize < SNAPSHOT_HEADER_SIZE + 4 || fileSize > Integer.MAX_VALUE) {
+
+                return null;
+            }
+
+            ByteBuffer snapshot;
+            if (fileSize > SNAPSHOT_MAP_THRESHOLD) {
+
+                snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            } else {
+
+                snapshot = ByteBuffer.allocate((int) fileSize);
+                while (snapshot.hasRemaining()) {
+
+                    if (channel.read(snapshot) == -1) {
+
+                        return null;
+                    }
+                }
+                snapshot.flip();
+            }
+
+            int lookupBits = snapshot.getInt(4);
+            int symbolsPerLookup = snapshot.getInt(8);
+            int maxLength = snapshot.getInt(12);
+            int symbolCount = snapshot.getInt(16);
+            int subtableSize = snapshot.getInt(20);
+            if (snapshot.getInt(0) != SNAPSHOT_MAGIC 
+                    || snapshot.getLong(24) != source.length() 
+                    || snapshot.getLong(32) != source.lastModified() 
+                    || lookupBits < 1 || lookupBits > 16 
+                    || symbolsPerLookup < 1 || symbolsPerLookup > MAX_SYMBOLS_PER_LOOKUP 
+                    || maxLength < 0 || maxLength > MAX_CODE_LENGTH 
+                    || symbolCount < 0 || subtableSize < 0 
+                    || snapshotSize(lookupBits, symbolsPerLookup, maxLength, symbolCount, 
+                            subtableSize) != fileSize) {
+
+                return null;
+            }
+
+            CRC32C checksum = new CRC32C();
+            ByteBuffer body = snapshot.duplicate();
+            body.limit((int) fileSize - 4);
+            checksum.update(body);
+            if ((int) checksum.getValue() != snapshot.getInt((int) fileSize - 4)) {
+
+                return null;
+            }
+
+            return new HuffmanDecodeTable(snapshot, symbolCount, subtableSize);
+        } finally {
+
+            in.close();
+        }
+    }
+
+    /**
+     * Get the number of bits the table is indexed with.
+     */
+    public int getLookupBits() {
+
+        return lookupBits;
+    }
+
+    /**
+     * Get the most symbols a single lookup may decode.
+     */
+    public int getSymbolsPerLookup() {
+
+        return symbolsPerLookup;
+    }
+
+    /**
+     * Put symbol at position in every entry from start to start + span.
+     */
+    private void fillEntries(int start, int span, int position, int symbol, int bits, 
+            int firstBits) {
+
+        for (int entry = start; entry < start + span; entry++) {
+
+            entrySymbols[(entry * symbolsPerLookup) + position] = symbol;
+            entryCounts[entry] = (byte) (position + 1);
+            entryBits[entry] = (byte) bits;
+            entryFirstBits[entry] = (byte) firstBits;
+        }
+    }
+
+    /**
+     * Check if a symbol is one of the escape codes or a run symbol, which are followed by 
+     * raw bits.
+     */
+    private static boolean needsRawBits(int symbol) {
+
+        return symbol == HuffmanCompression.ESCAPE_CHAR 
+                || symbol >= HuffmanCompression.ESCAPE_CODE_POINT;
+    }
+
+    /**
+     * Write a symbol as one character, or as a surrogate pair for code points above the BMP.
+     */
+    static void writeSymbol(Writer writer, int symbol) throws IOException {
+
+        if (symbol < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+
+            writer.write(symbol);
+        } else {
+
+            writer.write(Character.highSurrogate(symbol));
+            writer.write(Character.lowSurrogate(symbol));
+        }
+    }
+
+    /**
+     * Decode exactly symbolCount symbols from data and write them to writer.
+     * An ESCAPE_CHAR code is followed by the escaped character as 16 raw bits, and an 
+     * ESCAPE_CODE_POINT code by the escaped code point as 21 raw bits. A run symbol repeats 
+     * the symbol before it, which is always in the same block.
+     *
+     * @param data the encoded bits.
+     * @param offset the index in data of the first encoded byte.
+     * @param length the number of bytes of data to decode from.
+     * @param symbolCount the number of symbols to decode.
+     * @param writer where to write the decoded characters.
+     * @return the number of bits of data not used by any symbol.
+     */
+    public long decode(byte[] data, int offset, int length, long symbolCount, Writer writer) 
+            throws IOException {
+
+        int dataIndex = offset;
+        int dataEnd = offset + length;
+        long window = 0;
+        int windowBits = 0;
+        long remaining = symbolCount;
+        int mask = (1 << lookupBits) - 1;
+        int entry;
+        int count;
+        int entryIndex;
+        int symbol;
+        int codeLength;
+
+        // Raw bits to read after an escape or run symbol, -1 for none
+        int rawBits = -1;
+        int rawSymbol = 0;
+        int lastSymbol = -1;
+
+        while (remaining > 0) {
+
+            // Top up the window to at least 57 bits if there is any input left
+            while (windowBits <= 56 && dataIndex < dataEnd) {
+
+                window = (window << 8) | (data[dataIndex++] & 0xFF);
+                windowBits += 8;
+            }
+
+            if (rawBits != -1) {
+
+                if (windowBits < rawBits) {
+
+                    throw new EOFException("Encoded data ended after " 
+                            + (symbolCount - remaining) + " symbols");
+                }
+                windowBits -= rawBits;
+                symbol = (int) (window >>> windowBits) & ((1 << rawBits) - 1);
+                if (rawSymbol >= HuffmanCompression.RUN_SYMBOL) {
+
+                    int repeats = (1 << rawBits) | symbol;
+                    if (lastSymbol == -1 || repeats > remaining) {
+
+                        throw new IOException("Invalid run after " 
+                                + (symbolCount - remaining) + " symbols");
+                    }
+                    for (int i = 0; i < repeats; i++) {
+
+                        writeSymbol(writer, lastSymbol);
+                    }
+                    remaining -= repeats;
+                } else {
+
+                    writeSymbol(writer, symbol);
+                    lastSymbol = symbol;
+                    remaining--;
+                }
+                rawBits = -1;
+                continue;
+            }
+
+            entry = (windowBits >= lookupBits) 
+                    ? (int) (window >>> (windowBits - lookupBits)) & mask
+                    : (int) (window << (lookupBits - windowBits)) & mask;
+            count = entryCounts[entry];
+
+            if (count != 0 && count <= remaining && entryBits[entry] <= windowBits) {
+
+                entryIndex = entry * symbolsPerLookup;
+                for (int i = 0; i < count; i++) {
+
+                    writeSymbol(writer, entrySymbols[entryIndex + i]);
+                }
+                lastSymbol = entrySymbols[entryIndex + count - 1];
+                windowBits -= entryBits[entry];
+                remaining -= count;
+                continue;
+            } else if (count != 0 && entryFirstBits[entry] <= windowBits) {
+
+                lastSymbol = entrySymbols[entry * symbolsPerLookup];
+                writeSymbol(writer, lastSymbol);
+                windowBits -= entryFirstBits[entry];
+                remaining--;
+                continue;
+            }
+
+            long decoded = decodeLonger(entry, window, windowBits, symbolCount - remaining);
+            symbol = (int) (decoded >>> 8);
+            codeLength = (int) (decoded & 0xFF);
+            windowBits -= codeLength;
+
+            if (symbol == HuffmanCompression.ESCAPE_CHAR) {
+
+                rawBits = 16;
+                rawSymbol = symbol;
+            } else if (symbol == HuffmanCompression.ESCAPE_CODE_POINT) {
+
+                rawBits = 21;
+                rawSymbol = symbol;
+            } else if (symbol >= HuffmanCompression.RUN_SYMBOL) {
+
+                rawBits = symbol - HuffmanCompression.RUN_SYMBOL;
+                rawSymbol = symbol;
+            } else {
+
+                writeSymbol(writer, symbol);
+                lastSymbol = symbol;
+                remaining--;
+            }
+        }
+
+        return windowBits + ((long) (dataEnd - dataIndex) * 8);
+    }
+
+    /**
+     * Decode the one symbol whose code starts at the top of the windowBits low bits of window.
+     * Escape codes come back like any other symbol, it is up to the caller to handle them.
+     * This lets callers interleave codes from several tables with raw bits in one stream.
+     *
+     * @param window the next bits of input, right aligned.
+     * @param windowBits the number of bits held in window, at most 64.
+     * @param decoded the number of symbols decoded so far, for error messages.
+     * @return the symbol shifted up 8 bits, with the length of its code in the low 8 bits.
+     */
+    public long decodeSymbol(long window, int windowBits, long decoded) throws IOException {
+
+        int mask = (1 << lookupBits) - 1;
+        int entry = (windowBits >= lookupBits) 
+                ? (int) (window >>> (windowBits - lookupBits)) & mask
+                : (int) (window << (lookupBits - windowBits)) & mask;
+        if (entryCounts[entry] != 0 && entryFirstBits[entry] <= windowBits) {
+
+            return (((long) entrySymbols[entry * symbolsPerLookup]) << 8) | entryFirstBits[entry];
+        }
+
+        return decodeLonger(entry, window, windowBits, decoded);
+    }
+
+    /**
+     * Decode a symbol whose code is not in the lookup entry through the second level table 
+     * or, failing that, bit by bit.
+     *
+     * @return the symbol shifted up 8 bits, with the length of its code in the low 8 bits.
+     */
+    private long decodeLonger(int entry, long window, int windowBits, long decoded) 
+            throws IOException {
+
+        if (subtableOffsets[entry] >= 0 && windowBits > lookupBits) {
+
+            int restBits = windowBits - lookupBits;
+            int bits = subtableBits[entry];
+            int slot = subtableOffsets[entry] + ((restBits >= bits) 
+                    ? (int) (window >>> (restBits - bits)) & ((1 << bits) - 1)
+                    : (int) (window << (bits - restBits)) & ((1 << bits) - 1));
+            if (subtableLengths[slot] != 0 && subtableLengths[slot] <= windowBits) {
+
+                return (((long) subtableSymbols[slot]) << 8) | subtableLengths[slot];
+            }
+        }
+
+        return decodeLong(window, windowBits, decoded);
+    }
+
+    /**
+     * Decode one symbol a bit at a time using the canonical code layout.
+     *
+     * @return the symbol shifted up 8 bits, with the length of its code in the low 8 bits.
+     */
+    private long decodeLong(long window, int windowBits, long decoded) throws IOException {
+
+        long code = 0;
+        for (int length = 1; length <= maxLength && length <= windowBits; length++) {
+
+            code = (code << 1) | ((window >>> (windowBits - length)) & 1);
+            long index = code - firstCode[length];
+            if (lengthCounts[length] != 0 && index >= 0 && index < lengthCounts[length]) {
+
+                return (((long) sortedSymbols[firstIndex[length] + (int) index]) << 8) | length;
+            }
+        }
+
+        if (windowBits < maxLength) {
+
+            throw new EOFException("Encoded data ended after " + decoded + " symbols");
+        }
+        throw new IOException("Invalid code in encoded data after " + decoded + " symbols");
+    }
+}
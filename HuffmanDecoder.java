@@ -0,0 +1,220 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.CharArrayWriter;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Decodes the block format written by HuffmanEncoder with a fixed Huffman encoding.
+ * A decoder never changes once built, so one instance can be shared by any number of threads.
+ * Each thread decodes through its own reused scratch buffers.
+ */
+public class HuffmanDecoder {
+
+    //~Constants-----------------------------------
+    /**
+     * Per-thread buffers, shared by every decoder since none of them depend on the encoding.
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+
+            return new Scratch();
+        }
+    };
+
+    //~Fields--------------------------------------
+    private final HuffmanDecodeTable table;
+
+    /**
+     * Whether each block is checked against its checksum before it is decoded.
+     */
+    private final boolean verifyChecksums;
+
+    /**
+     * Build a decoder for an encoding, decoding one symbol per lookup and verifying checksums.
+     *
+     * @param encodingMap a canonical mapping from binary strings to the symbols they encode.
+     */
+    public HuffmanDecoder(Map<String, Integer> encodingMap) {
+
+        this(new HuffmanDecodeTable(encodingMap), true);
+    }
+
+    /**
+     * Build a decoder around a decode table.
+     *
+     * @param table the table to decode with.
+     * @param verifyChecksums false to skip checking blocks against their checksums.
+     */
+    public HuffmanDecoder(HuffmanDecodeTable table, boolean verifyChecksums) {
+
+        this.table = table;
+        this.verifyChecksums = verifyChecksums;
+    }
+
+    /**
+     * Start decoding a frame fed in chunks as they arrive, for example from a non-blocking 
+     * socket. Each call returns a new stream decoder sharing this decoder's table.
+     */
+    public HuffmanStreamDecoder newStreamDecoder() {
+
+        return new HuffmanStreamDecoder(table, verifyChecksums);
+    }
+
+    /**
+     * Decode a complete compressed frame held in memory.
+     *
+     * @param compressed the header followed by the encoded blocks.
+     * @return the decoded text.
+     */
+    public String decode(byte[] compressed) throws IOException {
+
+        ByteBuffer frame = ByteBuffer.wrap(compressed);
+        CRC32C checksum = SCRATCH.get().checksum;
+        long symbolCount;
+        CharArrayWriter writer;
+        long symbolsRead = 0;
+        try {
+
+            symbolCount = frame.getLong();
+            int blockCount = frame.getInt();
+            if (symbolCount < 0) {
+
+                throw new IOException("Invalid symbol count: " + symbolCount);
+            }
+            writer = new CharArrayWriter((int) Math.min(symbolCount, 1 << 20));
+
+            for (int block = 0; block < blockCount; block++) {
+
+                int blockSymbolCount = frame.getInt();
+                int blockLength = frame.getInt();
+                int paddingBits = frame.getInt();
+                int blockChecksum = frame.getInt();
+                if (blockLength < 0 || blockLength > frame.remaining()) {
+
+                    throw new IOException("Block " + block + " runs past the end of the data");
+                }
+
+                decodeBlock(compressed, frame.position(), blockLength, blockSymbolCount, 
+                        paddingBits, blockChecksum, block, checksum, writer);
+                frame.position(frame.position() + blockLength);
+                symbolsRead += blockSymbolCount;
+            }
+        } catch (BufferUnderflowException e) {
+
+            throw new IOException("Frame ends early");
+        }
+
+        checkSymbolCount(symbolsRead, symbolCount);
+        return writer.toString();
+    }
+
+    /**
+     * Decode one compressed frame from a stream, leaving the stream just past its end.
+     *
+     * @param in the stream to read the frame from.
+     * @param writer where to write the decoded characters, it is not flushed.
+     */
+    public void decode(InputStream in, Writer writer) throws IOException {
+
+        DataInputStream is = new DataInputStream(in);
+        Scratch scratch = SCRATCH.get();
+        long symbolCount = is.readLong();
+        int blockCount = is.readInt();
+        long symbolsRead = 0;
+
+        for (int block = 0; block < blockCount; block++) {
+
+            int blockSymbolCount = is.readInt();
+            int blockLength = is.readInt();
+            int paddingBits = is.readInt();
+            int blockChecksum = is.readInt();
+            // The header is not covered by the checksum, so bound it before allocating
+            if (blockLength < 0 || blockLength > HuffmanCompression.MAX_BLOCK_LENGTH) {
+
+                throw new IOException("Block " + block + " has an invalid length: " 
+                        + blockLength);
+            }
+            is.readFully(scratch.blockBytes, 0, blockLength);
+
+            decodeBlock(scratch.blockBytes, 0, blockLength, blockSymbolCount, 
+                    paddingBits, blockChecksum, block, scratch.checksum, writer);
+            symbolsRead += blockSymbolCount;
+        }
+
+        checkSymbolCount(symbolsRead, symbolCount);
+    }
+
+    /**
+     * Check a block against its checksum, then decode it.
+     */
+    private void decodeBlock(byte[] data, int offset, int length, int blockSymbolCount, 
+            int paddingBits, int blockChecksum, int block, CRC32C checksum, Writer writer) 
+            throws IOException {
+
+        // Check the block before any of it is decoded
+        if (verifyChecksums) {
+
+            checksum.reset();
+            checksum.update(data, offset, length);
+            if ((int) checksum.getValue() != blockChecksum) {
+
+                throw new IOException("Checksum mismatch in block " + block);
+            }
+        }
+
+        long bitsLeft = table.decode(data, offset, length, blockSymbolCount, writer);
+        if (bitsLeft != paddingBits) {
+
+            throw new IOException("Block " + block + " ended with " + bitsLeft 
+                    + " unread bits, header says " + paddingBits);
+        }
+    }
+
+    /**
+     * Check the number of symbols decoded against the frame header.
+     */
+    private void checkSymbolCount(long symbolsRead, long symbolCount) throws IOException {
+
+        if (symbolsRead != symbolCount) {
+
+            throw new IOException("Compressed data held " + symbolsRead 
+                    + " symbols, header says " + symbolCount);
+        }
+    }
+
+    /**
+     * Buffers reused by every decode call on one thread. 
+     * They live as long as the thread does.
+     */
+    static class Scratch {
+        final byte[] blockBytes = new byte[HuffmanCompression.MAX_BLOCK_LENGTH];
+        final CRC32C checksum = new CRC32C();
+    }
+}
@@ -0,0 +1,524 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Encodes text with a fixed Huffman encoding into the block format read by HuffmanDecoder.
+ * A frame starts with the number of encoded symbols as a long and the number of blocks 
+ * as an int, followed by the blocks, each with its own header and a CRC32C of its bytes.
+ * An encoder never changes once built, so one instance can be shared by any number of threads.
+ * Each thread encodes through its own reused scratch buffers.
+ */
+public class HuffmanEncoder {
+
+    //~Constants-----------------------------------
+    private static final int CHAR_BUFFER_SIZE = 1 << 13;
+
+    /**
+     * Blocks are closed before their symbol count can overflow an int.
+     */
+    private static final int MAX_BLOCK_SYMBOLS = Integer.MAX_VALUE / 2;
+
+    /**
+     * Per-thread buffers, shared by every encoder since none of them depend on the encoding.
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+
+            return new Scratch();
+        }
+    };
+
+    //~Fields--------------------------------------
+    /**
+     * Whether symbols are whole code points rather than single chars.
+     */
+    private final boolean codePoints;
+
+    /**
+     * Whether repeats of a symbol are coded as run symbols, only used with code points.
+     */
+    private final boolean runs;
+
+    /**
+     * The code of each char, right aligned, for codes up to MAX_CODE_LENGTH bits.
+     * Only used when encoding chars.
+     */
+    private final long[] codes;
+
+    /**
+     * The length of the code of each char, 0 for chars that are escaped.
+     * Only used when encoding chars.
+     */
+    private final int[] codeLengths;
+
+    /**
+     * The code and code length of each code point. Only used when encoding code points.
+     */
+    private final IntCodeMap codeMap;
+
+    /**
+     * Codes too long for codes or codeMap, kept as binary strings.
+     */
+    private final Map<Integer, String> longCodes;
+
+    private final long escapeCode;
+    private final int escapeLength;
+
+    /**
+     * The number of raw bits following the escape code.
+     */
+    private final int escapeBits;
+
+    /**
+     * Build an encoder for an encoding over chars.
+     *
+     * @param encoding a Mapping from characters to strings indicating the Huffman encoding to use.
+     */
+    public HuffmanEncoder(Map<Character, String> encoding) {
+
+        this(symbolEncoding(encoding), false, false);
+    }
+
+    /**
+     * Build an encoder for an encoding over whole code points, which keeps supplementary
+     * characters together instead of coding their surrogate halves.
+     *
+     * @param encoding a Mapping from code points to strings indicating the encoding to use.
+     */
+    public static HuffmanEncoder forCodePoints(Map<Integer, String> encoding) {
+
+        return new HuffmanEncoder(encoding, true, false);
+    }
+
+    /**
+     * Build an encoder for an encoding over code points and run symbols. 
+     * A symbol repeated at least MIN_RUN more times is written once, followed by the run 
+     * symbol for the number of repeats, see HuffmanCompression.RUN_SYMBOL. Runs whose run 
+     * symbol has no code are written out symbol by symbol instead.
+     *
+     * @param encoding a Mapping from code points and run symbols to strings indicating the 
+     *          encoding to use.
+     */
+    public static HuffmanEncoder forRunLengths(Map<Integer, String> encoding) {
+
+        return new HuffmanEncoder(encoding, true, true);
+    }
+
+    /**
+     * Build an encoder for an encoding over chars or code points.
+     */
+    private HuffmanEncoder(Map<Integer, String> encoding, boolean codePoints, boolean runs) {
+
+        this.codePoints = codePoints;
+        this.runs = runs;
+        longCodes = new HashMap<Integer, String>();
+        if (codePoints) {
+
+            codes = null;
+            codeLengths = null;
+            codeMap = new IntCodeMap(encoding.size());
+        } else {
+
+            codes = new long[Character.MAX_VALUE + 1];
+            codeLengths = new int[Character.MAX_VALUE + 1];
+            codeMap = null;
+        }
+
+        // Escape codes never encode themselves, so they are left out
+        for (Map.Entry<Integer, String> entry : encoding.entrySet()) {
+
+            int symbol = entry.getKey();
+            String symbolEncoding = entry.getValue();
+            if (symbol == HuffmanCompression.ESCAPE_CHAR 
+                    || symbol == HuffmanCompression.ESCAPE_CODE_POINT) {
+                continue;
+            }
+            if (!codePoints && symbol > Character.MAX_VALUE) {
+
+                throw new IllegalArgumentException("Not a char: " + symbol);
+            }
+            if (!runs && symbol > Character.MAX_CODE_POINT) {
+
+                throw new IllegalArgumentException("Not a code point: " + symbol);
+            }
+
+            long code = 0;
+            if (symbolEncoding.length() > DirectFineBytes.MAX_CODE_LENGTH) {
+
+                longCodes.put(symbol, symbolEncoding);
+            } else if (symbolEncoding.length() > 0) {
+
+                code = Long.parseLong(symbolEncoding, 2);
+            }
+            if (codePoints) {
+
+                codeMap.put(symbol, code, symbolEncoding.length());
+            } else {
+
+                codes[symbol] = code;
+                codeLengths[symbol] = symbolEncoding.length();
+            }
+        }
+
+        // Symbols without a code of their own go out as the escape code and then raw bits
+        int escapeSymbol = codePoints 
+                ? HuffmanCompression.ESCAPE_CODE_POINT : HuffmanCompression.ESCAPE_CHAR;
+        String escapeEncoding = encoding.get(escapeSymbol);
+        if (escapeEncoding != null && escapeEncoding.length() > DirectFineBytes.MAX_CODE_LENGTH) {
+
+            throw new IllegalArgumentException("Escape code is too long: " + escapeEncoding);
+        }
+        escapeLength = (escapeEncoding == null) ? 0 : escapeEncoding.length();
+        escapeCode = (escapeLength == 0) ? 0 : Long.parseLong(escapeEncoding, 2);
+        escapeBits = codePoints ? 21 : 16;
+    }
+
+    /**
+     * Turn an encoding over chars into one over int symbols.
+     */
+    private static Map<Integer, String> symbolEncoding(Map<Character, String> encoding) {
+
+        Map<Integer, String> symbolMap = new HashMap<Integer, String>();
+        for (Map.Entry<Character, String> entry : encoding.entrySet()) {
+
+            symbolMap.put((int) entry.getKey().charValue(), entry.getValue());
+        }
+
+        return symbolMap;
+    }
+
+    /**
+     * Encode a String into a complete compressed frame held in memory.
+     *
+     * @param text the text to encode.
+     * @return the header followed by the encoded blocks.
+     */
+    public byte[] encode(String text) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream((text.length() / 2) 
+                + HuffmanCompression.HEADER_SIZE + HuffmanCompression.BLOCK_HEADER_SIZE);
+        out.write(new byte[HuffmanCompression.HEADER_SIZE]);
+
+        EncodeState state = new EncodeState(Channels.newChannel(out), null);
+        encodeBlocks(new StringReader(text), state);
+
+        byte[] compressed = out.toByteArray();
+        ByteBuffer header = ByteBuffer.wrap(compressed);
+        header.putLong(state.symbolCount);
+        header.putInt(state.blockCount);
+        return compressed;
+    }
+
+    /**
+     * Encode everything in a Reader into a compressed frame written at the channel's position.
+     * The header is filled in after the blocks have been written.
+     *
+     * @param in the characters to encode.
+     * @param channel the channel to write to.
+     * @param counts if not null, each encoded symbol's count is added to it. It must be 
+     *          indexable by every symbol, so sized past Character.MAX_CODE_POINT for code points
+     *          and past the run symbols when coding runs.
+     * @return the number of encoded bits written, not counting headers and padding.
+     */
+    public long encode(Reader in, FileChannel channel, long[] counts) throws IOException {
+
+        long headerPosition = channel.position();
+        channel.write(ByteBuffer.allocate(HuffmanCompression.HEADER_SIZE));
+
+        EncodeState state = new EncodeState(channel, counts);
+        encodeBlocks(in, state);
+
+        ByteBuffer header = ByteBuffer.allocate(HuffmanCompression.HEADER_SIZE);
+        header.putLong(state.symbolCount);
+        header.putInt(state.blockCount);
+        header.flip();
+        channel.write(header, headerPosition);
+        return state.bitCount;
+    }
+
+    /**
+     * Encode everything in a Reader as blocks written to the state's channel.
+     */
+    private void encodeBlocks(Reader in, EncodeState state) throws IOException {
+
+        Scratch scratch = SCRATCH.get();
+        state.fineBytes = scratch.fineBytes;
+        state.checksum = scratch.checksum;
+        state.fineBytes.clear();
+        char[] chars = scratch.chars;
+
+        // A high surrogate waiting for its low half, possibly from the previous read
+        int pendingHigh = -1;
+        int charsRead;
+        char c;
+        while ((charsRead = in.read(chars)) != -1) {
+
+            if (!codePoints) {
+
+                for (int i = 0; i < charsRead; i++) {
+
+                    encodeSymbol(chars[i], state);
+                }
+                continue;
+            }
+
+            for (int i = 0; i < charsRead; i++) {
+
+                c = chars[i];
+                if (pendingHigh != -1) {
+
+                    if (Character.isLowSurrogate(c)) {
+
+                        nextCodePoint(Character.toCodePoint((char) pendingHigh, c), state);
+                        pendingHigh = -1;
+                        continue;
+                    }
+                    nextCodePoint(pendingHigh, state);
+                    pendingHigh = -1;
+                }
+
+                if (Character.isHighSurrogate(c)) {
+
+                    pendingHigh = c;
+                } else {
+
+                    nextCodePoint(c, state);
+                }
+            }
+        }
+
+        if (pendingHigh != -1) {
+
+            nextCodePoint(pendingHigh, state);
+        }
+        if (state.runSymbol != -1) {
+
+            encodeRun(state);
+        }
+        if (state.blockSymbolCount > 0) {
+
+            writeBlock(state);
+        }
+    }
+
+    /**
+     * Take the next code point, encoding it straight away or, when coding runs, once it is 
+     * known how many times it repeats.
+     */
+    private void nextCodePoint(int codePoint, EncodeState state) throws IOException {
+
+        if (!runs) {
+
+            encodeSymbol(codePoint, state);
+        } else if (codePoint == state.runSymbol && state.runRepeats < HuffmanCompression.MAX_RUN) {
+
+            state.runRepeats++;
+        } else {
+
+            if (state.runSymbol != -1) {
+
+                encodeRun(state);
+            }
+            state.runSymbol = codePoint;
+            state.runRepeats = 0;
+        }
+    }
+
+    /**
+     * Encode the symbol held in the state and its repeats, as a run symbol if there are 
+     * enough of them, the run symbol has a code and it takes fewer bits than the repeats 
+     * coded one by one. The symbol and its run symbol always go into the same block.
+     */
+    private void encodeRun(EncodeState state) throws IOException {
+
+        int symbol = state.runSymbol;
+        int repeats = state.runRepeats;
+        state.runSymbol = -1;
+
+        int runBits = 31 - Integer.numberOfLeadingZeros(repeats);
+        int runSymbol = HuffmanCompression.RUN_SYMBOL + runBits;
+        int slot = (repeats >= HuffmanCompression.MIN_RUN) ? codeMap.find(runSymbol) : -1;
+        int symbolSlot = codeMap.find(symbol);
+        long repeatBits = (long) repeats * ((symbolSlot == -1) 
+                ? escapeLength + escapeBits : codeMap.lengthAt(symbolSlot));
+        if (slot == -1 || codeMap.lengthAt(slot) > DirectFineBytes.MAX_CODE_LENGTH 
+                || codeMap.lengthAt(slot) + runBits >= repeatBits) {
+
+            for (int i = 0; i <= repeats; i++) {
+
+                encodeSymbol(symbol, state);
+            }
+            return;
+        }
+
+        addCode(symbol, state.fineBytes);
+        state.fineBytes.addBits(codeMap.codeAt(slot), codeMap.lengthAt(slot));
+        state.fineBytes.addBits(repeats, runBits);
+        if (state.counts != null) {
+
+            state.counts[symbol]++;
+            state.counts[runSymbol]++;
+        }
+        state.blockSymbolCount += 1 + repeats;
+        closeBlockIfFull(state);
+    }
+
+    /**
+     * Add the code of one symbol to the current block, closing the block once it is full.
+     */
+    private void encodeSymbol(int symbol, EncodeState state) throws IOException {
+
+        addCode(symbol, state.fineBytes);
+        if (state.counts != null) {
+
+            state.counts[symbol]++;
+        }
+        state.blockSymbolCount++;
+        closeBlockIfFull(state);
+    }
+
+    /**
+     * Close the current block if it has reached BLOCK_SIZE bytes or MAX_BLOCK_SYMBOLS symbols.
+     */
+    private void closeBlockIfFull(EncodeState state) throws IOException {
+
+        if (state.fineBytes.numBytes() >= HuffmanCompression.BLOCK_SIZE 
+                || state.blockSymbolCount >= MAX_BLOCK_SYMBOLS) {
+
+            writeBlock(state);
+        }
+    }
+
+    /**
+     * Add the code of one symbol to fineBytes, or the escape code and the symbol's raw bits 
+     * if it has no code of its own.
+     */
+    private void addCode(int symbol, DirectFineBytes fineBytes) {
+
+        int length;
+        long code;
+        if (codePoints) {
+
+            int slot = codeMap.find(symbol);
+            length = (slot == -1) ? 0 : codeMap.lengthAt(slot);
+            code = (slot == -1) ? 0 : codeMap.codeAt(slot);
+        } else {
+
+            length = codeLengths[symbol];
+            code = codes[symbol];
+        }
+
+        if (length == 0) {
+
+            if (escapeLength == 0) {
+
+                throw new IllegalArgumentException("No encoding for symbol " + symbol);
+            }
+            fineBytes.addBits(escapeCode, escapeLength);
+            fineBytes.addBits(symbol, escapeBits);
+        } else if (length <= DirectFineBytes.MAX_CODE_LENGTH) {
+
+            fineBytes.addBits(code, length);
+        } else {
+
+            fineBytes.addBits(longCodes.get(symbol));
+        }
+    }
+
+    /**
+     * Write the bits held in the state's fineBytes out as one block and clear it.
+     * The block header holds, as ints, its number of symbols, its length in bytes, 
+     * the number of padding bits in its final byte and the CRC32C of its bytes.
+     */
+    private void writeBlock(EncodeState state) throws IOException {
+
+        DirectFineBytes fineBytes = state.fineBytes;
+        int paddingBits = fineBytes.padToByte();
+        ByteBuffer blockBytes = fineBytes.getBytes();
+        state.checksum.reset();
+        state.checksum.update(blockBytes.duplicate());
+
+        ByteBuffer blockHeader = ByteBuffer.allocate(HuffmanCompression.BLOCK_HEADER_SIZE);
+        blockHeader.putInt(state.blockSymbolCount);
+        blockHeader.putInt(blockBytes.remaining());
+        blockHeader.putInt(paddingBits);
+        blockHeader.putInt((int) state.checksum.getValue());
+        blockHeader.flip();
+        while (blockHeader.hasRemaining()) {
+
+            state.out.write(blockHeader);
+        }
+
+        state.bitCount += (fineBytes.writeTo(state.out) * 8L) - paddingBits;
+        state.symbolCount += state.blockSymbolCount;
+        state.blockCount++;
+        state.blockSymbolCount = 0;
+    }
+
+    /**
+     * Where one call to encode is writing to and its running totals.
+     */
+    static class EncodeState {
+        WritableByteChannel out;
+        long[] counts;
+        DirectFineBytes fineBytes;
+        CRC32C checksum;
+        int blockSymbolCount;
+        long symbolCount;
+
+        /**
+         * The code point whose repeats are being counted, -1 for none, and its repeats.
+         */
+        int runSymbol = -1;
+        int runRepeats;
+        int blockCount;
+        long bitCount;
+
+        EncodeState(WritableByteChannel out, long[] counts) {
+
+            this.out = out;
+            this.counts = counts;
+        }
+    }
+
+    /**
+     * Buffers reused by every encode call on one thread. 
+     * They live as long as the thread does.
+     */
+    static class Scratch {
+        DirectFineBytes fineBytes = new DirectFineBytes(HuffmanCompression.BLOCK_SIZE + 8);
+        CRC32C checksum = new CRC32C();
+        char[] chars = new char[CHAR_BUFFER_SIZE];
+    }
+}
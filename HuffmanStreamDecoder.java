@@ -0,0 +1,365 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * Decodes one compressed frame fed in chunks of any size, such as packets read from a 
+ * non-blocking socket, keeping its place between chunks. 
+ * All state lives in a few fields, so memory use does not depend on the chunk, block or 
+ * frame sizes. Symbols are written out as soon as their bits arrive rather than once their 
+ * block is complete, so a block's checksum is checked when its last byte arrives, after 
+ * its symbols have been written.
+ *
+ * A stream decoder holds the state of one frame so it is not thread safe, but any number 
+ * of them can share a HuffmanDecodeTable.
+ */
+public class HuffmanStreamDecoder {
+
+    //~Constants-----------------------------------
+    /**
+     * A code is only decoded once the window holds this many bits or the rest of its block, 
+     * so no code or raw bits can run past the window.
+     */
+    private static final int FULL_WINDOW_BITS = 57;
+
+    private static final int FRAME_HEADER = 0;
+    private static final int BLOCK_HEADER = 1;
+    private static final int BLOCK_DATA = 2;
+    private static final int BLOCK_PADDING = 3;
+    private static final int DONE = 4;
+
+    //~Fields--------------------------------------
+    private final HuffmanDecodeTable table;
+    private final boolean verifyChecksums;
+    private final CRC32C checksum;
+
+    /**
+     * Header bytes collected so far, the frame and block headers can be split across chunks.
+     */
+    private final ByteBuffer header;
+
+    private int state;
+    private long symbolCount;
+    private int blockCount;
+    private int block;
+    private long symbolsDecoded;
+
+    // The block being decoded
+    private int blockBytesLeft;
+    private long blockSymbolsLeft;
+    private int paddingBits;
+    private int blockChecksum;
+
+    /**
+     * The next bits of the block, right aligned.
+     */
+    private long window;
+    private int windowBits;
+
+    /**
+     * Raw bits to read after an escape or run symbol, -1 for none.
+     */
+    private int rawBits;
+    private int rawSymbol;
+    private int lastSymbol;
+
+    /**
+     * Set up to decode a frame from its first byte.
+     *
+     * @param table the table for the encoding the frame was written with.
+     * @param verifyChecksums false to skip checking blocks against their checksums.
+     */
+    public HuffmanStreamDecoder(HuffmanDecodeTable table, boolean verifyChecksums) {
+
+        this.table = table;
+        this.verifyChecksums = verifyChecksums;
+        checksum = new CRC32C();
+        header = ByteBuffer.allocate(HuffmanCompression.BLOCK_HEADER_SIZE);
+        header.limit(HuffmanCompression.HEADER_SIZE);
+        state = FRAME_HEADER;
+    }
+
+    /**
+     * Decode as much of a chunk as possible, writing every symbol whose bits have arrived.
+     * All of the chunk is used unless the frame ends in it, in which case the chunk is left 
+     * positioned just past the end of the frame.
+     *
+     * @param chunk the next bytes of the frame.
+     * @param writer where to write the decoded characters, it is not flushed.
+     * @return true once the whole frame has been decoded.
+     */
+    public boolean feed(ByteBuffer chunk, Writer writer) throws IOException {
+
+        while (state != DONE) {
+
+            if (state == FRAME_HEADER || state == BLOCK_HEADER) {
+
+                while (header.hasRemaining() && chunk.hasRemaining()) {
+
+                    header.put(chunk.get());
+                }
+                if (header.hasRemaining()) {
+
+                    return false;
+                }
+                header.flip();
+                if (state == FRAME_HEADER) {
+
+                    startFrame();
+                } else {
+
+                    startBlock();
+                }
+                header.clear();
+                header.limit(HuffmanCompression.BLOCK_HEADER_SIZE);
+            } else if (state == BLOCK_DATA) {
+
+                if (!decodeSymbols(chunk, writer)) {
+
+                    return false;
+                }
+            } else if (!skipPadding(chunk)) {
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check that the whole frame has been fed in, once the input has ended.
+     *
+     * @throws EOFException if the input ended part way through the frame.
+     */
+    public void finish() throws IOException {
+
+        if (state != DONE) {
+
+            throw new EOFException("Compressed data ended after " + symbolsDecoded 
+                    + " symbols in block " + block);
+        }
+    }
+
+    /**
+     * Check if the whole frame has been decoded.
+     */
+    public boolean isFinished() {
+
+        return (state == DONE);
+    }
+
+    /**
+     * Get the number of symbols decoded so far.
+     */
+    public long getSymbolsDecoded() {
+
+        return symbolsDecoded;
+    }
+
+    /**
+     * Read the frame header held in header.
+     */
+    private void startFrame() throws IOException {
+
+        symbolCount = header.getLong();
+        blockCount = header.getInt();
+        if (symbolCount < 0 || blockCount < 0) {
+
+            throw new IOException("Invalid frame header: " + symbolCount + " symbols in " 
+                    + blockCount + " blocks");
+        }
+        nextBlock();
+    }
+
+    /**
+     * Read the block header held in header.
+     */
+    private void startBlock() throws IOException {
+
+        blockSymbolsLeft = header.getInt();
+        blockBytesLeft = header.getInt();
+        paddingBits = header.getInt();
+        blockChecksum = header.getInt();
+        if (blockBytesLeft < 0 || blockSymbolsLeft < 0 
+                || blockSymbolsLeft > symbolCount - symbolsDecoded) {
+
+            throw new IOException("Invalid header for block " + block);
+        }
+
+        checksum.reset();
+        window = 0;
+        windowBits = 0;
+        rawBits = -1;
+        lastSymbol = -1;
+        state = BLOCK_DATA;
+    }
+
+    /**
+     * Move on to the next block, or finish the frame after the last one.
+     */
+    private void nextBlock() throws IOException {
+
+        if (block < blockCount) {
+
+            state = BLOCK_HEADER;
+            return;
+        }
+        if (symbolsDecoded != symbolCount) {
+
+            throw new IOException("Compressed data held " + symbolsDecoded 
+                    + " symbols, header says " + symbolCount);
+        }
+        state = DONE;
+    }
+
+    /**
+     * Decode symbols of the current block until it is done or the chunk runs out.
+     *
+     * @return true once every symbol of the block has been decoded.
+     */
+    private boolean decodeSymbols(ByteBuffer chunk, Writer writer) throws IOException {
+
+        byte b;
+        while (blockSymbolsLeft > 0) {
+
+            // Top up the window from the chunk
+            while (windowBits <= 56 && blockBytesLeft > 0 && chunk.hasRemaining()) {
+
+                b = chunk.get();
+                if (verifyChecksums) {
+
+                    checksum.update(b);
+                }
+                window = (window << 8) | (b & 0xFF);
+                windowBits += 8;
+                blockBytesLeft--;
+            }
+            if (windowBits < FULL_WINDOW_BITS && blockBytesLeft > 0) {
+
+                return false;
+            }
+
+            if (rawBits != -1) {
+
+                if (windowBits < rawBits) {
+
+                    throw new EOFException("Block " + block + " ended after " 
+                            + symbolsDecoded + " symbols");
+                }
+                windowBits -= rawBits;
+                int bits = (int) (window >>> windowBits) & ((1 << rawBits) - 1);
+                if (rawSymbol >= HuffmanCompression.RUN_SYMBOL) {
+
+                    int repeats = (1 << rawBits) | bits;
+                    if (lastSymbol == -1 || repeats > blockSymbolsLeft) {
+
+                        throw new IOException("Invalid run after " + symbolsDecoded 
+                                + " symbols");
+                    }
+                    for (int i = 0; i < repeats; i++) {
+
+                        HuffmanDecodeTable.writeSymbol(writer, lastSymbol);
+                    }
+                    blockSymbolsLeft -= repeats;
+                    symbolsDecoded += repeats;
+                } else {
+
+                    HuffmanDecodeTable.writeSymbol(writer, bits);
+                    lastSymbol = bits;
+                    blockSymbolsLeft--;
+                    symbolsDecoded++;
+                }
+                rawBits = -1;
+                continue;
+            }
+
+            long decoded = table.decodeSymbol(window, windowBits, symbolsDecoded);
+            int symbol = (int) (decoded >>> 8);
+            windowBits -= (int) (decoded & 0xFF);
+            if (symbol == HuffmanCompression.ESCAPE_CHAR) {
+
+                rawBits = 16;
+                rawSymbol = symbol;
+            } else if (symbol == HuffmanCompression.ESCAPE_CODE_POINT) {
+
+                rawBits = 21;
+                rawSymbol = symbol;
+            } else if (symbol >= HuffmanCompression.RUN_SYMBOL) {
+
+                rawBits = symbol - HuffmanCompression.RUN_SYMBOL;
+                rawSymbol = symbol;
+            } else {
+
+                HuffmanDecodeTable.writeSymbol(writer, symbol);
+                lastSymbol = symbol;
+                blockSymbolsLeft--;
+                symbolsDecoded++;
+            }
+        }
+
+        state = BLOCK_PADDING;
+        return true;
+    }
+
+    /**
+     * Take in the rest of the current block after its last symbol, then check the leftover 
+     * bits and the checksum.
+     *
+     * @return true once the block is complete.
+     */
+    private boolean skipPadding(ByteBuffer chunk) throws IOException {
+
+        byte b;
+        while (blockBytesLeft > 0 && chunk.hasRemaining()) {
+
+            b = chunk.get();
+            if (verifyChecksums) {
+
+                checksum.update(b);
+            }
+            windowBits += 8;
+            blockBytesLeft--;
+        }
+        if (blockBytesLeft > 0) {
+
+            return false;
+        }
+
+        if (windowBits != paddingBits) {
+
+            throw new IOException("Block " + block + " ended with " + windowBits 
+                    + " unread bits, header says " + paddingBits);
+        }
+        if (verifyChecksums && (int) checksum.getValue() != blockChecksum) {
+
+            throw new IOException("Checksum mismatch in block " + block);
+        }
+        block++;
+        nextBlock();
+        return true;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+/**
+ * Open addressing map from int symbols to their codes and code lengths.
+ * Keys and values live in primitive arrays, so lookups never box and the map stays compact 
+ * for alphabets in the tens of thousands. Symbols must not be negative.
+ */
+public class IntCodeMap {
+
+    //~Constants-----------------------------------
+    private static final int EMPTY = -1;
+
+    //~Fields--------------------------------------
+    private int[] keys;
+    private long[] codes;
+    private int[] lengths;
+    private int size;
+
+    /**
+     * Bitmask for wrapping slot indices, the capacity is always a power of two.
+     */
+    private int mask;
+
+    /**
+     * How far to shift a hash so its top bits make a slot index.
+     */
+    private int shift;
+
+    /**
+     * Set up a map sized to hold expectedSize symbols without growing.
+     */
+    public IntCodeMap(int expectedSize) {
+
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Allocate empty arrays of the passed in capacity.
+     */
+    private void allocate(int capacity) {
+
+        keys = new int[capacity];
+        codes = new long[capacity];
+        lengths = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+
+            keys[i] = EMPTY;
+        }
+        mask = capacity - 1;
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+        size = 0;
+    }
+
+    /**
+     * Fibonacci hash a symbol so neighbouring symbols land far apart.
+     */
+    private int slotFor(int symbol) {
+
+        return (symbol * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * Set the code and code length of a symbol.
+     */
+    public void put(int symbol, long code, int length) {
+
+        if (symbol < 0) {
+
+            throw new IllegalArgumentException("Symbols cannot be negative: " + symbol);
+        }
+        if ((size + 1) * 2 > keys.length) {
+
+            grow();
+        }
+
+        int slot = slotFor(symbol);
+        while (keys[slot] != EMPTY && keys[slot] != symbol) {
+
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == EMPTY) {
+
+            size++;
+        }
+        keys[slot] = symbol;
+        codes[slot] = code;
+        lengths[slot] = length;
+    }
+
+    /**
+     * Double the capacity and put every symbol back.
+     */
+    private void grow() {
+
+        int[] oldKeys = keys;
+        long[] oldCodes = codes;
+        int[] oldLengths = lengths;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+
+            if (oldKeys[i] != EMPTY) {
+
+                put(oldKeys[i], oldCodes[i], oldLengths[i]);
+            }
+        }
+    }
+
+    /**
+     * Find the slot holding a symbol.
+     *
+     * @return the slot, or -1 if the symbol is not in the map.
+     */
+    public int find(int symbol) {
+
+        int slot = slotFor(symbol);
+        int key;
+        while ((key = keys[slot]) != EMPTY) {
+
+            if (key == symbol) {
+
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get the code held in a slot returned by find.
+     */
+    public long codeAt(int slot) {
+
+        return codes[slot];
+    }
+
+    /**
+     * Get the code length held in a slot returned by find.
+     */
+    public int lengthAt(int slot) {
+
+        return lengths[slot];
+    }
+
+    /**
+     * Get the number of symbols in the map.
+     */
+    public int size() {
+
+        return size;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Decodes the frame format written by LZ77Encoder. 
+ * Every block carries its own codes, so nothing beyond the frame is needed to decode it.
+ * A decoder never changes once built, so one instance can be shared by any number of threads.
+ */
+public class LZ77Decoder {
+
+    //~Constants-----------------------------------
+    private static final int LOOKUP_BITS = 10;
+
+    //~Fields--------------------------------------
+    /**
+     * Whether each block is checked against its checksum before it is decoded.
+     */
+    private final boolean verifyChecksums;
+
+    /**
+     * Build a decoder.
+     *
+     * @param verifyChecksums false to skip checking blocks against their checksums.
+     */
+    public LZ77Decoder(boolean verifyChecksums) {
+
+        this.verifyChecksums = verifyChecksums;
+    }
+
+    /**
+     * Decode a complete compressed frame held in memory.
+     *
+     * @param compressed the header followed by the encoded blocks.
+     * @return the decoded bytes.
+     */
+    public byte[] decode(byte[] compressed) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 3);
+        decode(new ByteArrayInputStream(compressed), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode one compressed frame from a stream, leaving the stream just past its end.
+     * The last window of decoded bytes is kept so matches can reach back across blocks.
+     *
+     * @param in the stream to read the frame from.
+     * @param out where to write the decoded bytes, it is not flushed.
+     */
+    public void decode(InputStream in, OutputStream out) throws IOException {
+
+        DataInputStream is = new DataInputStream(in);
+        if (is.readInt() != LZ77Encoder.MAGIC) {
+
+            throw new IOException("Not an LZ77 frame");
+        }
+        int windowBits = is.readInt();
+        if (windowBits < LZ77Encoder.MIN_WINDOW_BITS 
+                || windowBits > LZ77Encoder.MAX_WINDOW_BITS) {
+
+            throw new IOException("Invalid window bits: " + windowBits);
+        }
+        long byteCount = is.readLong();
+        int blockCount = is.readInt();
+
+        int windowSize = 1 << windowBits;
+        int distanceAlphabetSize = LZ77Encoder.distanceAlphabetSize(windowBits);
+        byte[] history = new byte[(2 * windowSize) + LZ77Encoder.BLOCK_INPUT_SIZE];
+        byte[] blockBytes = new byte[LZ77Encoder.BLOCK_INPUT_SIZE];
+        BitReader bits = new BitReader(blockBytes, 0, 0);
+        CRC32C checksum = new CRC32C();
+        int start = 0;
+        long bytesRead = 0;
+
+        for (int block = 0; block < blockCount; block++) {
+
+            int blockByteCount = is.readInt();
+            int blockLength = is.readInt();
+            int paddingBits = is.readInt();
+            int blockChecksum = is.readInt();
+            // The header is not covered by the checksum, so bound it before allocating
+            if (blockLength < 0 || blockLength > LZ77Encoder.MAX_BLOCK_LENGTH 
+                    || blockByteCount < 0 || blockByteCount > LZ77Encoder.BLOCK_INPUT_SIZE) {
+
+                throw new IOException("Block " + block + " has an invalid length");
+            }
+            if (blockLength > blockBytes.length) {
+
+                blockBytes = new byte[blockLength];
+            }
+            is.readFully(blockBytes, 0, blockLength);
+
+            if (verifyChecksums) {
+
+                checksum.reset();
+                checksum.update(blockBytes, 0, blockLength);
+                if ((int) checksum.getValue() != blockChecksum) {
+
+                    throw new IOException("Checksum mismatch in block " + block);
+                }
+            }
+
+            // Keep the last window and make room for the block, like the encoder does. 
+            // Blocks are at most BLOCK_INPUT_SIZE, so one window and a block always fit
+            if (start + blockByteCount > history.length) {
+
+                int shift = start - windowSize;
+                System.arraycopy(history, shift, history, 0, windowSize);
+                start -= shift;
+            }
+
+            bits.reset(blockBytes, 0, blockLength);
+            decodeBlock(bits, history, start, blockByteCount, distanceAlphabetSize, block);
+            if (bits.remainingBits() != paddingBits) {
+
+                throw new IOException("Block " + block + " ended with " + bits.remainingBits() 
+                        + " unread bits, header says " + paddingBits);
+            }
+
+            out.write(history, start, blockByteCount);
+            start += blockByteCount;
+            bytesRead += blockByteCount;
+        }
+
+        if (bytesRead != byteCount) {
+
+            throw new IOException("Compressed data held " + bytesRead 
+                    + " bytes, header says " + byteCount);
+        }
+    }
+
+    /**
+     * Decode one block's codes and tokens into history, starting at start.
+     *
+     * @param byteCount the number of bytes the block decodes to.
+     */
+    private void decodeBlock(BitReader bits, byte[] history, int start, int byteCount, 
+            int distanceAlphabetSize, int block) throws IOException {
+
+        HuffmanDecodeTable literalTable = CanonicalCode.read(bits, 
+                LZ77Encoder.LITERAL_ALPHABET_SIZE).decodeTable(LOOKUP_BITS);
+        HuffmanDecodeTable lengthTable = CanonicalCode.read(bits, 
+                LZ77Encoder.LENGTH_ALPHABET_SIZE).decodeTable(LOOKUP_BITS);
+        HuffmanDecodeTable distanceTable = CanonicalCode.read(bits, 
+                distanceAlphabetSize).decodeTable(LOOKUP_BITS);
+
+        int position = start;
+        int end = start + byteCount;
+        int symbol;
+        int length;
+        int distance;
+        while (position < end) {
+
+            symbol = bits.decodeSymbol(literalTable, position - start);
+            if (symbol != LZ77Encoder.MATCH_SYMBOL) {
+
+                history[position++] = (byte) symbol;
+                continue;
+            }
+
+            symbol = bits.decodeSymbol(lengthTable, position - start);
+            length = LZ77Encoder.MIN_MATCH + LZ77Encoder.bucketBase(symbol) 
+                    + bits.readBits(LZ77Encoder.bucketExtraBits(symbol));
+            symbol = bits.decodeSymbol(distanceTable, position - start);
+            distance = 1 + LZ77Encoder.bucketBase(symbol) 
+                    + bits.readBits(LZ77Encoder.bucketExtraBits(symbol));
+            if (distance > position || length > end - position) {
+
+                throw new IOException("Invalid match in block " + block + " at byte " 
+                        + (position - start));
+            }
+
+            // Copy a byte at a time, a match may overlap the bytes it is producing
+            for (int from = position - distance; length > 0; length--) {
+
+                history[position++] = history[from++];
+            }
+        }
+    }
+}
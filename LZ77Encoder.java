@@ -0,0 +1,669 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Compresses bytes with LZ77 followed by Huffman coding, read back by LZ77Decoder.
+ * Repeats of earlier bytes within the window are replaced by matches found through hash 
+ * chains, and what is left is coded as three streams with their own Huffman codes: 
+ * literals, match lengths and match distances. Lengths and distances are coded as a bucket 
+ * symbol plus raw extra bits, the way deflate does it.
+ * <p>
+ * A frame starts with a magic number, the window bits and the byte count as ints, the total 
+ * number of bytes as a long and the number of blocks as an int. Each block has the same 
+ * header as a HuffmanEncoder block, with its number of bytes in place of the symbol count.
+ * Its bits start with the code lengths of the three codes, followed by the tokens. 
+ * A literal token is its literal code; a match token is the MATCH_SYMBOL literal code 
+ * followed by the length and the distance.
+ * <p>
+ * With block splitting each block of input is cut into segments of SPLIT_SEGMENT_TOKENS 
+ * tokens, and the segments are grouped into coded blocks where starting new codes saves 
+ * more than the cost of writing them. Blocks are costed from their symbol counts as the 
+ * entropy of the three streams plus the code lengths and block header, and the cheapest 
+ * grouping is found by dynamic programming over the segments.
+ * <p>
+ * An encoder never changes once built, so one instance can be shared by any number of threads.
+ */
+public class LZ77Encoder {
+
+    //~Constants-----------------------------------
+    /**
+     * The first int of every LZ77 frame, "LZH1". A HuffmanEncoder frame can only start the 
+     * same way with more than 2^62 symbols.
+     */
+    public static final int MAGIC = 0x4C5A4831;
+
+    public static final int DEFAULT_LEVEL = 6;
+    public static final int MIN_LEVEL = 1;
+    public static final int MAX_LEVEL = 9;
+    public static final int DEFAULT_WINDOW_BITS = 15;
+    public static final int MIN_WINDOW_BITS = 8;
+    public static final int MAX_WINDOW_BITS = 24;
+
+    static final int MIN_MATCH = 3;
+    static final int MAX_MATCH = 258;
+
+    /**
+     * Literal symbol marking a match, the bytes take up symbols 0 to 255.
+     */
+    static final int MATCH_SYMBOL = 256;
+    static final int LITERAL_ALPHABET_SIZE = 257;
+    static final int LENGTH_ALPHABET_SIZE = bucketSymbol(MAX_MATCH - MIN_MATCH) + 1;
+
+    /**
+     * Size of the frame header: the magic number, window bits, the byte count and block count.
+     */
+    static final int HEADER_SIZE = 20;
+
+    /**
+     * The most input bytes coded in one block.
+     */
+    static final int BLOCK_INPUT_SIZE = 1 << 17;
+
+    /**
+     * The most bytes a block can code to: the three code tables with every length followed 
+     * by a zero run count, then every input byte as a literal with the longest code, which 
+     * costs more than any match covering the same bytes. Decoders reject longer blocks 
+     * before allocating for them.
+     */
+    static final int MAX_BLOCK_LENGTH = (int) ((((long) BLOCK_INPUT_SIZE 
+            * DirectFineBytes.MAX_CODE_LENGTH) + ((long) (LITERAL_ALPHABET_SIZE 
+            + LENGTH_ALPHABET_SIZE + distanceAlphabetSize(MAX_WINDOW_BITS)) 
+            * (CanonicalCode.LENGTH_BITS + CanonicalCode.ZERO_RUN_BITS)) + 7) / 8);
+
+    /**
+     * How many match candidates each level checks and the match length it settles for. 
+     * Levels from LAZY_LEVEL up also check whether waiting a byte gives a longer match.
+     */
+    private static final int[] MAX_CHAIN = {4, 8, 16, 16, 32, 128, 256, 1024, 4096};
+    private static final int[] NICE_LENGTH = {8, 16, 32, 32, 64, 128, 258, 258, 258};
+    private static final int LAZY_LEVEL = 4;
+
+    /**
+     * The tokens in each segment block splitting may cut a block of input at.
+     */
+    static final int SPLIT_SEGMENT_TOKENS = 2048;
+
+    /**
+     * The cost in bits of starting a block besides its code lengths, the header and 
+     * on average half a byte of padding.
+     */
+    private static final int BLOCK_OVERHEAD_BITS = (HuffmanCompression.BLOCK_HEADER_SIZE * 8) + 4;
+
+    /**
+     * n * log2(n) for each count a block can hold, so blocks are costed without logarithms.
+     */
+    private static final float[] N_LOG2_N = new float[BLOCK_INPUT_SIZE + 1];
+    static {
+
+        for (int n = 1; n <= BLOCK_INPUT_SIZE; n++) {
+
+            N_LOG2_N[n] = (float) (n * Math.log(n) / Math.log(2));
+        }
+    }
+
+    //~Fields--------------------------------------
+    private final int level;
+    private final int windowBits;
+
+    /**
+     * Whether each block of input may be coded as several blocks with their own codes.
+     */
+    private final boolean splitBlocks;
+
+    /**
+     * Build an encoder with the DEFAULT_LEVEL and DEFAULT_WINDOW_BITS.
+     */
+    public LZ77Encoder() {
+
+        this(DEFAULT_LEVEL, DEFAULT_WINDOW_BITS);
+    }
+
+    /**
+     * Build an encoder.
+     *
+     * @param level how hard to look for matches, MIN_LEVEL is fastest and MAX_LEVEL 
+     *          compresses best.
+     * @param windowBits the log2 of the farthest a match may reach back.
+     */
+    public LZ77Encoder(int level, int windowBits) {
+
+        this(level, windowBits, true);
+    }
+
+    /**
+     * Build an encoder.
+     *
+     * @param level how hard to look for matches, MIN_LEVEL is fastest and MAX_LEVEL 
+     *          compresses best.
+     * @param windowBits the log2 of the farthest a match may reach back.
+     * @param splitBlocks true to start new codes within a block of input wherever the 
+     *          statistics change enough to pay for them, false for one set of codes per block.
+     */
+    public LZ77Encoder(int level, int windowBits, boolean splitBlocks) {
+
+        if (level < MIN_LEVEL || level > MAX_LEVEL) {
+
+            throw new IllegalArgumentException("level must be between " + MIN_LEVEL + " and " 
+                    + MAX_LEVEL + ": " + level);
+        }
+        if (windowBits < MIN_WINDOW_BITS || windowBits > MAX_WINDOW_BITS) {
+
+            throw new IllegalArgumentException("windowBits must be between " + MIN_WINDOW_BITS 
+                    + " and " + MAX_WINDOW_BITS + ": " + windowBits);
+        }
+        this.level = level;
+        this.windowBits = windowBits;
+        this.splitBlocks = splitBlocks;
+    }
+
+    /**
+     * Get the bucket symbol coding a length or distance value.
+     * Values below 4 have a symbol each, after that each power of two is split into 
+     * two buckets told apart by the bit below the top one.
+     */
+    static int bucketSymbol(int value) {
+
+        if (value < 4) {
+
+            return value;
+        }
+        int topBit = 31 - Integer.numberOfLeadingZeros(value);
+        return (topBit << 1) | ((value >>> (topBit - 1)) & 1);
+    }
+
+    /**
+     * Get the number of extra bits following a bucket symbol.
+     */
+    static int bucketExtraBits(int symbol) {
+
+        return (symbol < 4) ? 0 : (symbol >>> 1) - 1;
+    }
+
+    /**
+     * Get the smallest value in a bucket, the extra bits are added to it.
+     */
+    static int bucketBase(int symbol) {
+
+        return (symbol < 4) ? symbol : (2 | (symbol & 1)) << bucketExtraBits(symbol);
+    }
+
+    /**
+     * Get the number of distance symbols for a window.
+     */
+    static int distanceAlphabetSize(int windowBits) {
+
+        return bucketSymbol((1 << windowBits) - 1) + 1;
+    }
+
+    /**
+     * Encode bytes into a complete compressed frame held in memory.
+     *
+     * @param data the bytes to encode.
+     * @return the header followed by the encoded blocks.
+     */
+    public byte[] encode(byte[] data) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream((data.length / 2) + HEADER_SIZE 
+                + HuffmanCompression.BLOCK_HEADER_SIZE);
+        out.write(new byte[HEADER_SIZE]);
+
+        EncodeState state = new EncodeState(Channels.newChannel(out), windowBits);
+        encodeBlocks(new ByteArrayInputStream(data), state);
+
+        byte[] compressed = out.toByteArray();
+        writeHeader(ByteBuffer.wrap(compressed), state);
+        return compressed;
+    }
+
+    /**
+     * Encode everything in an InputStream into a frame written at the channel's position.
+     * The header is filled in after the blocks have been written.
+     *
+     * @param in the bytes to encode.
+     * @param channel the channel to write to.
+     * @return the number of bytes written, including headers.
+     */
+    public long encode(InputStream in, FileChannel channel) throws IOException {
+
+        long headerPosition = channel.position();
+        channel.write(ByteBuffer.allocate(HEADER_SIZE));
+
+        EncodeState state = new EncodeState(channel, windowBits);
+        encodeBlocks(in, state);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        writeHeader(header, state);
+        header.flip();
+        channel.write(header, headerPosition);
+        return channel.position() - headerPosition;
+    }
+
+    /**
+     * Put the frame header for a finished encode into header.
+     */
+    private void writeHeader(ByteBuffer header, EncodeState state) {
+
+        header.putInt(MAGIC);
+        header.putInt(windowBits);
+        header.putLong(state.byteCount);
+        header.putInt(state.blockCount);
+    }
+
+    /**
+     * Encode everything in an InputStream as blocks written to the state's channel.
+     * Input is read a block at a time into a buffer that keeps at least a window of the 
+     * bytes before the current block, so matches can reach back across blocks.
+     */
+    private void encodeBlocks(InputStream in, EncodeState state) throws IOException {
+
+        int windowSize = 1 << windowBits;
+        LZ77MatchFinder matchFinder = new LZ77MatchFinder(windowBits, MAX_CHAIN[level - 1], 
+                NICE_LENGTH[level - 1]);
+        byte[] buffer = new byte[(2 * windowSize) + BLOCK_INPUT_SIZE];
+        int start = 0;
+        int end;
+        int bytesRead;
+        DirectFineBytes fineBytes = new DirectFineBytes(BLOCK_INPUT_SIZE + 8);
+        state.fineBytes = fineBytes;
+        try {
+
+            while (true) {
+
+                // Move the buffer down by whole windows to make room for the next block
+                if (start + BLOCK_INPUT_SIZE > buffer.length) {
+
+                    int shift = (start - windowSize) & ~(windowSize - 1);
+                    System.arraycopy(buffer, shift, buffer, 0, start - shift);
+                    matchFinder.slide(shift);
+                    start -= shift;
+                }
+
+                end = start;
+                while (end < start + BLOCK_INPUT_SIZE && (bytesRead = 
+                        in.read(buffer, end, start + BLOCK_INPUT_SIZE - end)) != -1) {
+
+                    end += bytesRead;
+                }
+                if (end == start) {
+                    break;
+                }
+
+                findTokens(buffer, start, end, matchFinder, state);
+                if (splitBlocks) {
+
+                    writeSplitBlocks(state);
+                } else {
+
+                    writeBlock(state, 0, state.tokenCount, 0, state.literalCounts, 
+                            state.lengthCounts, state.distanceCounts);
+                }
+                start = end;
+            }
+        } finally {
+
+            fineBytes.close();
+        }
+    }
+
+    /**
+     * Split the bytes from start to end into literals and matches, counting each stream's 
+     * symbols as they go into the state.
+     */
+    private void findTokens(byte[] buffer, int start, int end, LZ77MatchFinder matchFinder, 
+            EncodeState state) {
+
+        state.reset();
+        boolean lazy = level >= LAZY_LEVEL;
+
+        // With lazy matching a match found at position - 1 waits to see if position does better
+        boolean pending = false;
+        int pendingLength = 0;
+        int pendingDistance = 0;
+        int position = start;
+        int length;
+        while (position < end) {
+
+            length = 0;
+            if (position + MIN_MATCH <= end) {
+
+                matchFinder.insert(buffer, position);
+                length = matchFinder.longestMatch(buffer, position, end);
+            }
+
+            if (pending) {
+
+                if (length > pendingLength) {
+
+                    state.addLiteral(buffer[position - 1] & 0xFF);
+                    pendingLength = length;
+                    pendingDistance = matchFinder.matchDistance();
+                    position++;
+                    continue;
+                }
+
+                state.addMatch(pendingLength, pendingDistance);
+                position = insertMatch(buffer, position - 1, pendingLength, end, matchFinder);
+                pending = false;
+                continue;
+            }
+
+            if (length == 0) {
+
+                state.addLiteral(buffer[position] & 0xFF);
+                position++;
+            } else if (lazy && length < NICE_LENGTH[level - 1]) {
+
+                pending = true;
+                pendingLength = length;
+                pendingDistance = matchFinder.matchDistance();
+                position++;
+            } else {
+
+                state.addMatch(length, matchFinder.matchDistance());
+                position = insertMatch(buffer, position, length, end, matchFinder);
+            }
+        }
+
+        if (pending) {
+
+            state.addMatch(pendingLength, pendingDistance);
+        }
+    }
+
+    /**
+     * Insert the positions covered by a match after the first two, which are already in.
+     *
+     * @return the position just past the match.
+     */
+    private int insertMatch(byte[] buffer, int matchStart, int length, int end, 
+            LZ77MatchFinder matchFinder) {
+
+        int matchEnd = matchStart + length;
+        for (int i = matchStart + 2; i < matchEnd && i + MIN_MATCH <= end; i++) {
+
+            matchFinder.insert(buffer, i);
+        }
+
+        return matchEnd;
+    }
+
+    /**
+     * Group the segments of the tokens held in the state into the blocks that cost least 
+     * and write each of them out.
+     */
+    private void writeSplitBlocks(EncodeState state) throws IOException {
+
+        int segmentCount = (state.tokenCount + SPLIT_SEGMENT_TOKENS - 1) / SPLIT_SEGMENT_TOKENS;
+        int lengthOffset = LITERAL_ALPHABET_SIZE;
+        int distanceOffset = lengthOffset + LENGTH_ALPHABET_SIZE;
+        int symbolCount = distanceOffset + state.distanceCounts.length;
+
+        // Running symbol counts of all three streams at the start of each segment
+        int[][] prefixCounts = new int[segmentCount + 1][symbolCount];
+        int matchIndex = 0;
+        for (int segment = 0; segment < segmentCount; segment++) {
+
+            int[] counts = prefixCounts[segment + 1];
+            System.arraycopy(prefixCounts[segment], 0, counts, 0, symbolCount);
+            int end = Math.min((segment + 1) * SPLIT_SEGMENT_TOKENS, state.tokenCount);
+            for (int i = segment * SPLIT_SEGMENT_TOKENS; i < end; i++) {
+
+                counts[state.literals[i]]++;
+                if (state.literals[i] == MATCH_SYMBOL) {
+
+                    counts[lengthOffset 
+                            + bucketSymbol(state.lengths[matchIndex] - MIN_MATCH)]++;
+                    counts[distanceOffset + bucketSymbol(state.distances[matchIndex] - 1)]++;
+                    matchIndex++;
+                }
+            }
+        }
+
+        // The cheapest cost of coding the first j segments, and where its last block starts
+        double[] bestCost = new double[segmentCount + 1];
+        int[] blockStart = new int[segmentCount + 1];
+        for (int j = 1; j <= segmentCount; j++) {
+
+            bestCost[j] = Double.MAX_VALUE;
+            for (int i = 0; i < j; i++) {
+
+                double cost = bestCost[i] + blockCost(prefixCounts[i], prefixCounts[j], 
+                        lengthOffset, distanceOffset, symbolCount);
+                if (cost < bestCost[j]) {
+
+                    bestCost[j] = cost;
+                    blockStart[j] = i;
+                }
+            }
+        }
+
+        int blockCount = 0;
+        int[] blockEnds = new int[segmentCount];
+        for (int j = segmentCount; j > 0; j = blockStart[j]) {
+
+            blockEnds[blockCount++] = j;
+        }
+
+        long[] literalCounts = new long[LITERAL_ALPHABET_SIZE];
+        long[] lengthCounts = new long[LENGTH_ALPHABET_SIZE];
+        long[] distanceCounts = new long[state.distanceCounts.length];
+        int first = 0;
+        for (int block = blockCount - 1; block >= 0; block--) {
+
+            int last = blockEnds[block];
+            int[] from = prefixCounts[first];
+            int[] to = prefixCounts[last];
+            for (int symbol = 0; symbol < symbolCount; symbol++) {
+
+                long count = to[symbol] - from[symbol];
+                if (symbol < lengthOffset) {
+
+                    literalCounts[symbol] = count;
+                } else if (symbol < distanceOffset) {
+
+                    lengthCounts[symbol - lengthOffset] = count;
+                } else {
+
+                    distanceCounts[symbol - distanceOffset] = count;
+                }
+            }
+            writeBlock(state, first * SPLIT_SEGMENT_TOKENS, 
+                    Math.min(last * SPLIT_SEGMENT_TOKENS, state.tokenCount), 
+                    from[MATCH_SYMBOL], literalCounts, lengthCounts, distanceCounts);
+            first = last;
+        }
+    }
+
+    /**
+     * Estimate the bits taken by a block holding the symbols counted between two running 
+     * counts: the entropy of each stream, its code lengths and the block overhead. 
+     * Extra bits are left out since they do not depend on how blocks are split.
+     */
+    private static double blockCost(int[] from, int[] to, int lengthOffset, int distanceOffset, 
+            int symbolCount) {
+
+        double bits = BLOCK_OVERHEAD_BITS;
+        int streamEnd;
+        for (int stream = 0; stream < symbolCount; stream = streamEnd) {
+
+            streamEnd = (stream == 0) ? lengthOffset 
+                    : (stream == lengthOffset) ? distanceOffset : symbolCount;
+            int total = 0;
+            double sum = 0;
+            boolean lastUsed = true;
+            for (int symbol = stream; symbol < streamEnd; symbol++) {
+
+                int count = to[symbol] - from[symbol];
+                if (count != 0) {
+
+                    total += count;
+                    sum += N_LOG2_N[count];
+                    bits += CanonicalCode.LENGTH_BITS;
+                } else if (lastUsed) {
+
+                    // A run of unused symbols is written as one length and a run count
+                    bits += CanonicalCode.LENGTH_BITS + CanonicalCode.ZERO_RUN_BITS;
+                }
+                lastUsed = (count != 0);
+            }
+            bits += N_LOG2_N[total] - sum;
+        }
+
+        return bits;
+    }
+
+    /**
+     * Code the tokens from firstToken to endToken held in the state and write them out as 
+     * one block.
+     *
+     * @param firstMatch the index of the first match among the tokens.
+     */
+    private void writeBlock(EncodeState state, int firstToken, int endToken, int firstMatch, 
+            long[] literalCounts, long[] lengthCounts, long[] distanceCounts) 
+            throws IOException {
+
+        CanonicalCode literalCode = CanonicalCode.fromCounts(literalCounts);
+        CanonicalCode lengthCode = CanonicalCode.fromCounts(lengthCounts);
+        CanonicalCode distanceCode = CanonicalCode.fromCounts(distanceCounts);
+
+        DirectFineBytes fineBytes = state.fineBytes;
+        literalCode.write(fineBytes);
+        lengthCode.write(fineBytes);
+        distanceCode.write(fineBytes);
+
+        int matchIndex = firstMatch;
+        int byteCount = 0;
+        int symbol;
+        int value;
+        for (int i = firstToken; i < endToken; i++) {
+
+            literalCode.encode(fineBytes, state.literals[i]);
+            if (state.literals[i] != MATCH_SYMBOL) {
+
+                byteCount++;
+                continue;
+            }
+            byteCount += state.lengths[matchIndex];
+
+            value = state.lengths[matchIndex] - MIN_MATCH;
+            symbol = bucketSymbol(value);
+            lengthCode.encode(fineBytes, symbol);
+            fineBytes.addBits(value - bucketBase(symbol), bucketExtraBits(symbol));
+
+            value = state.distances[matchIndex] - 1;
+            symbol = bucketSymbol(value);
+            distanceCode.encode(fineBytes, symbol);
+            fineBytes.addBits(value - bucketBase(symbol), bucketExtraBits(symbol));
+            matchIndex++;
+        }
+
+        int paddingBits = fineBytes.padToByte();
+        ByteBuffer blockBytes = fineBytes.getBytes();
+        state.checksum.reset();
+        state.checksum.update(blockBytes.duplicate());
+
+        ByteBuffer blockHeader = ByteBuffer.allocate(HuffmanCompression.BLOCK_HEADER_SIZE);
+        blockHeader.putInt(byteCount);
+        blockHeader.putInt(blockBytes.remaining());
+        blockHeader.putInt(paddingBits);
+        blockHeader.putInt((int) state.checksum.getValue());
+        blockHeader.flip();
+        while (blockHeader.hasRemaining()) {
+
+            state.out.write(blockHeader);
+        }
+
+        fineBytes.writeTo(state.out);
+        state.byteCount += byteCount;
+        state.blockCount++;
+    }
+
+    /**
+     * Where one call to encode is writing to, the tokens of the block being coded and 
+     * the running totals.
+     */
+    static class EncodeState {
+        WritableByteChannel out;
+        DirectFineBytes fineBytes;
+        CRC32C checksum = new CRC32C();
+        long byteCount;
+        int blockCount;
+
+        /**
+         * The literal symbol of each token, with the lengths and distances of the matches 
+         * among them in order.
+         */
+        int[] literals = new int[BLOCK_INPUT_SIZE];
+        int[] lengths = new int[BLOCK_INPUT_SIZE / MIN_MATCH];
+        int[] distances = new int[BLOCK_INPUT_SIZE / MIN_MATCH];
+        int tokenCount;
+        int matchCount;
+
+        long[] literalCounts = new long[LITERAL_ALPHABET_SIZE];
+        long[] lengthCounts = new long[LENGTH_ALPHABET_SIZE];
+        long[] distanceCounts;
+
+        EncodeState(WritableByteChannel out, int windowBits) {
+
+            this.out = out;
+            distanceCounts = new long[distanceAlphabetSize(windowBits)];
+        }
+
+        /**
+         * Clear out the tokens and counts for the next block.
+         */
+        void reset() {
+
+            tokenCount = 0;
+            matchCount = 0;
+            Arrays.fill(literalCounts, 0);
+            Arrays.fill(lengthCounts, 0);
+            Arrays.fill(distanceCounts, 0);
+        }
+
+        void addLiteral(int literal) {
+
+            literals[tokenCount++] = literal;
+            literalCounts[literal]++;
+        }
+
+        void addMatch(int length, int distance) {
+
+            literals[tokenCount++] = MATCH_SYMBOL;
+            literalCounts[MATCH_SYMBOL]++;
+            lengths[matchCount] = length;
+            distances[matchCount++] = distance;
+            lengthCounts[bucketSymbol(length - MIN_MATCH)]++;
+            distanceCounts[bucketSymbol(distance - 1)]++;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.util.Arrays;
+
+/**
+ * Finds earlier occurrences of the bytes at a position using hash chains.
+ * Every inserted position is linked into a chain of earlier positions whose next three bytes 
+ * hash the same, and a search walks the chain newest first, up to maxChain candidates.
+ * Positions are indices into the caller's buffer. When the caller moves its buffer down it 
+ * calls slide so the chains follow.
+ */
+public class LZ77MatchFinder {
+
+    //~Constants-----------------------------------
+    private static final int HASH_BITS = 15;
+    private static final int NONE = -1;
+
+    /**
+     * The farthest a match of MIN_MATCH bytes may reach, farther ones cost more than literals.
+     */
+    private static final int TOO_FAR = 4096;
+
+    //~Fields--------------------------------------
+    private final int windowSize;
+    private final int windowMask;
+    private final int maxChain;
+    private final int niceLength;
+
+    /**
+     * The newest position inserted for each hash, NONE for none.
+     */
+    private final int[] head;
+
+    /**
+     * The next older position in the chain of each position, indexed by position 
+     * modulo windowSize. Older positions are out of the window and never followed.
+     */
+    private final int[] prev;
+
+    /**
+     * The distance of the match last found by longestMatch.
+     */
+    private int matchDistance;
+
+    /**
+     * Set up empty hash chains.
+     *
+     * @param windowBits the log2 of the farthest a match may reach back.
+     * @param maxChain the most candidates to check per search.
+     * @param niceLength a match length good enough to stop searching at.
+     */
+    public LZ77MatchFinder(int windowBits, int maxChain, int niceLength) {
+
+        windowSize = 1 << windowBits;
+        windowMask = windowSize - 1;
+        this.maxChain = maxChain;
+        this.niceLength = niceLength;
+        head = new int[1 << HASH_BITS];
+        prev = new int[windowSize];
+        Arrays.fill(head, NONE);
+        Arrays.fill(prev, NONE);
+    }
+
+    /**
+     * Hash the three bytes starting at position.
+     */
+    private static int hash(byte[] buffer, int position) {
+
+        int bytes = ((buffer[position] & 0xFF) << 16) | ((buffer[position + 1] & 0xFF) << 8) 
+                | (buffer[position + 2] & 0xFF);
+        return (bytes * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    /**
+     * Link a position into the chain for its hash. 
+     * Positions must be inserted in increasing order and have at least MIN_MATCH bytes after 
+     * them in buffer.
+     */
+    public void insert(byte[] buffer, int position) {
+
+        int h = hash(buffer, position);
+        prev[position & windowMask] = head[h];
+        head[h] = position;
+    }
+
+    /**
+     * Find the longest match for the bytes at position among the earlier positions in its 
+     * chain. Position must have been inserted already.
+     *
+     * @param buffer the bytes being matched.
+     * @param position where the bytes to match start.
+     * @param end the end of the bytes a match may cover.
+     * @return the length of the longest match, 0 if it is shorter than MIN_MATCH.
+     *          Its distance is given by matchDistance.
+     */
+    public int longestMatch(byte[] buffer, int position, int end) {
+
+        int maxLength = Math.min(LZ77Encoder.MAX_MATCH, end - position);
+        int limit = Math.max(position - windowSize, NONE);
+        int bestLength = LZ77Encoder.MIN_MATCH - 1;
+        int candidate = prev[position & windowMask];
+        int length;
+        for (int chain = maxChain; candidate > limit && chain > 0; chain--) {
+
+            // Checking the byte that would make the match longer first skips most candidates
+            if (buffer[candidate + bestLength] == buffer[position + bestLength] 
+                    && buffer[candidate] == buffer[position]) {
+
+                length = 1;
+                while (length < maxLength 
+                        && buffer[candidate + length] == buffer[position + length]) {
+
+                    length++;
+                }
+                if (length > bestLength) {
+
+                    bestLength = length;
+                    matchDistance = position - candidate;
+                    if (length >= niceLength || length == maxLength) {
+                        break;
+                    }
+                }
+            }
+            candidate = prev[candidate & windowMask];
+        }
+
+        if (bestLength == LZ77Encoder.MIN_MATCH && matchDistance > TOO_FAR) {
+
+            return 0;
+        }
+        return (bestLength >= LZ77Encoder.MIN_MATCH) ? bestLength : 0;
+    }
+
+    /**
+     * Get the distance back to the match last found by longestMatch.
+     */
+    public int matchDistance() {
+
+        return matchDistance;
+    }
+
+    /**
+     * Move every position down by shift after the caller moved its buffer down by as much.
+     * Positions that fall off the start of the buffer are dropped.
+     *
+     * @param shift how far the buffer moved, a multiple of the window size.
+     */
+    public void slide(int shift) {
+
+        for (int i = 0; i < head.length; i++) {
+
+            head[i] = (head[i] >= shift) ? head[i] - shift : NONE;
+        }
+        for (int i = 0; i < prev.length; i++) {
+
+            prev[i] = (prev[i] >= shift) ? prev[i] - shift : NONE;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+* The MIT License (MIT)
+* Copyright (c) 2016 Ethan Gaebel
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software 
+* and associated documentation files (the "Software"), to deal in the Software without restriction, 
+* including without limitation the rights to use, copy, modify, merge, publish, distribute, 
+* sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is 
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all copies or 
+* substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING 
+* BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND 
+* NONINFRINGEMENT. 
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.util.Arrays;
+
+/**
+ * Builds suffix arrays in linear time with SA-IS (Nong, Zhang and Chan, "Two Efficient 
+ * Algorithms for Linear Time Suffix Array Construction").
+ * Suffixes are classified as S or L type, the leftmost S type suffixes (LMS) are sorted 
+ * by inducing from their buckets, and if any LMS substrings are equal the problem is 
+ * reduced to sorting the string of their names, at most half as long.
+ */
+public class SuffixArray {
+
+    /**
+     * Only static methods, no instances.
+     */
+    private SuffixArray() {
+
+    }
+
+    /**
+     * Build the suffix array of a range of bytes followed by a sentinel smaller than any byte.
+     *
+     * @param data the bytes.
+     * @param offset where the range starts in data.
+     * @param length the number of bytes in the range.
+     * @return length + 1 suffix start positions in sorted order, the first of which is 
+     *          length, the sentinel on its own.
+     */
+    public static int[] build(byte[] data, int offset, int length) {
+
+        int[] text = new int[length + 1];
+        for (int i = 0; i < length; i++) {
+
+            text[i] = (data[offset + i] & 0xFF) + 1;
+        }
+        text[length] = 0;
+
+        int[] suffixArray = new int[length + 1];
+        sais(text, suffixArray, length + 1, 257);
+        return suffixArray;
+    }
+
+    /**
+     * Sort the suffixes of text into suffixArray.
+     *
+     * @param text the text, whose last symbol must be 0 and appear nowhere else.
+     * @param suffixArray where to put the sorted suffixes, at least n long.
+     * @param n the length of text.
+     * @param alphabetSize one more than the largest symbol in text.
+     */
+    private static void sais(int[] text, int[] suffixArray, int n, int alphabetSize) {
+
+        if (n == 1) {
+
+            suffixArray[0] = 0;
+            return;
+        }
+
+        // S type suffixes are smaller than the suffix after them
+        boolean[] sType = new boolean[n];
+        sType[n - 1] = true;
+        for (int i = n - 2; i >= 0; i--) {
+
+            sType[i] = text[i] < text[i + 1] || (text[i] == text[i + 1] && sType[i + 1]);
+        }
+        int[] buckets = new int[alphabetSize];
+
+        // Sort the LMS substrings by inducing from LMS positions in their bucket ends
+        bucketEnds(text, n, buckets);
+        Arrays.fill(suffixArray, 0, n, -1);
+        for (int i = 1; i < n; i++) {
+
+            if (isLMS(sType, i)) {
+
+                suffixArray[--buckets[text[i]]] = i;
+            }
+        }
+        induceL(text, suffixArray, sType, n, buckets);
+        induceS(text, suffixArray, sType, n, buckets);
+
+        // Name the sorted LMS substrings, equal substrings get equal names
+        int lmsCount = 0;
+        for (int i = 0; i < n; i++) {
+
+            if (isLMS(sType, suffixArray[i])) {
+
+                suffixArray[lmsCount++] = suffixArray[i];
+            }
+        }
+        Arrays.fill(suffixArray, lmsCount, n, -1);
+        int names = 0;
+        int previous = -1;
+        for (int i = 0; i < lmsCount; i++) {
+
+            int position = suffixArray[i];
+            boolean differs = false;
+            for (int d = 0; d < n; d++) {
+
+                if (previous == -1 || text[position + d] != text[previous + d] 
+                        || sType[position + d] != sType[previous + d]) {
+
+                    differs = true;
+                    break;
+                } else if (d > 0 && (isLMS(sType, position + d) || isLMS(sType, previous + d))) {
+                    break;
+                }
+            }
+            if (differs) {
+
+                names++;
+                previous = position;
+            }
+
+            // LMS positions are at least two apart, so halving them keeps them apart
+            suffixArray[lmsCount + (position >> 1)] = names - 1;
+        }
+        int j = n - 1;
+        for (int i = n - 1; i >= lmsCount; i--) {
+
+            if (suffixArray[i] >= 0) {
+
+                suffixArray[j--] = suffixArray[i];
+            }
+        }
+
+        // Sort the LMS suffixes, recursing if the names alone do not order them
+        int[] reduced = Arrays.copyOfRange(suffixArray, n - lmsCount, n);
+        int[] reducedArray = new int[lmsCount];
+        if (names < lmsCount) {
+
+            sais(reduced, reducedArray, lmsCount, names);
+        } else {
+
+            for (int i = 0; i < lmsCount; i++) {
+
+                reducedArray[reduced[i]] = i;
+            }
+        }
+
+        // Induce the full order from the sorted LMS suffixes
+        j = 0;
+        for (int i = 1; i < n; i++) {
+
+            if (isLMS(sType, i)) {
+
+                reduced[j++] = i;
+            }
+        }
+        bucketEnds(text, n, buckets);
+        Arrays.fill(suffixArray, 0, n, -1);
+        for (int i = lmsCount - 1; i >= 0; i--) {
+
+            j = reduced[reducedArray[i]];
+            suffixArray[--buckets[text[j]]] = j;
+        }
+        induceL(text, suffixArray, sType, n, buckets);
+        induceS(text, suffixArray, sType, n, buckets);
+    }
+
+    /**
+     * Check if position starts a leftmost S type suffix, an S type right after an L type.
+     */
+    private static boolean isLMS(boolean[] sType, int position) {
+
+        return position > 0 && sType[position] && !sType[position - 1];
+    }
+
+    /**
+     * Place L type suffixes scanning forward from the start of each bucket.
+     */
+    private static void induceL(int[] text, int[] suffixArray, boolean[] sType, int n, 
+            int[] buckets) {
+
+        bucketStarts(text, n, buckets);
+        int j;
+        for (int i = 0; i < n; i++) {
+
+            j = suffixArray[i] - 1;
+            if (j >= 0 && !sType[j]) {
+
+                suffixArray[buckets[text[j]]++] = j;
+            }
+        }
+    }
+
+    /**
+     * Place S type suffixes scanning backward from the end of each bucket.
+     */
+    private static void induceS(int[] text, int[] suffixArray, boolean[] sType, int n, 
+            int[] buckets) {
+
+        bucketEnds(text, n, buckets);
+        int j;
+        for (int i = n - 1; i >= 0; i--) {
+
+            j = suffixArray[i] - 1;
+            if (j >= 0 && sType[j]) {
+
+                suffixArray[--buckets[text[j]]] = j;
+            }
+        }
+    }
+
+    /**
+     * Set each bucket to the index its symbol's suffixes start at.
+     */
+    private static void bucketStarts(int[] text, int n, int[] buckets) {
+
+        Arrays.fill(buckets, 0);
+        for (int i = 0; i < n; i++) {
+
+            buckets[text[i]]++;
+        }
+        int sum = 0;
+        for (int i = 0; i < buckets.length; i++) {
+
+            sum += buckets[i];
+            buckets[i] = sum - buckets[i];
+        }
+    }
+
+    /**
+     * Set each bucket to the index just past its symbol's suffixes.
+     */
+    private static void bucketEnds(int[] text, int n, int[] buckets) {
+
+        Arrays.fill(buckets, 0);
+        for (int i = 0; i < n; i++) {
+
+            buckets[text[i]]++;
+        }
+        int sum = 0;
+        for (int i = 0; i < buckets.length; i++) {
+
+            sum += buckets[i];
+            buckets[i] = sum;
+        }
+    }
+}